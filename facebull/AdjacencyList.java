@@ -28,6 +28,12 @@ public class AdjacencyList {
 
     boolean keepSorted = true;
 
+    // edge changes so far, and the distances kept up to date with them
+    private int version = 0;
+    private DistanceOracle oracle;
+    private GraphSnapshot snapshot;
+    private int snapshotVersion;
+
     public AdjacencyList() {
     }
 
@@ -35,6 +41,34 @@ public class AdjacencyList {
         keepSorted = sort;
     }
 
+    /**
+     * the graph of g, whose rows are already sorted, with g as its first
+     * snapshot: see GraphBuilder
+     */
+    AdjacencyList(GraphSnapshot g) {
+        for (int u=0; u<g.nNodes; u++) {
+            Node n = g.nodes[u];
+            nodeList.add(n);
+            nodeMap.put(n, seq++);
+            int count = g.outStart[u+1] - g.outStart[u];
+            if (count > 0) {
+                ArrayList<Edge> list = new ArrayList<Edge>(count);
+                for (int a=g.outStart[u]; a<g.outStart[u+1]; a++)
+                    list.add(g.edges[a]);
+                adjacencies.put(n, list);
+            }
+            count = g.inStart[u+1] - g.inStart[u];
+            if (count > 0) {
+                ArrayList<Edge> list = new ArrayList<Edge>(count);
+                for (int k=g.inStart[u]; k<g.inStart[u+1]; k++)
+                    list.add(g.edges[g.inArc[k]]);
+                invAdjacencies.put(n, list);
+            }
+        }
+        snapshot = g;
+        snapshotVersion = version;
+    }
+
     public void addEdge(int name, Node source, Node target, int weight) {
         addEdge(new Edge(name, source, target, weight));
     }
@@ -44,12 +78,82 @@ public class AdjacencyList {
             e.to.name + " w=" + e.weight);
 
         // eliminate redundant edges, keeping only the minimum Edge one
-        if (getEdge(e.from, e.to) != null) {
-            if (getEdge(e.from, e.to).weight <= e.weight)
+        int oldWeight = DistanceOracle.INFINITY;
+        Edge old = getEdge(e.from, e.to);
+        if (old != null) {
+            if (old.weight <= e.weight)
                 return;
-            removeEdge(getEdge(e.from, e.to));
+            oldWeight = old.weight;
+            unlink(old);
+        }
+
+        link(e);
+
+        int nodes = nodeList.size();
+        addNode(e.from);
+        addNode(e.to);
+        if (nodeList.size() != nodes)
+            oracle = null;
+        changed(e, oldWeight, e.weight);
+    }
+
+    /**
+     * Change the weight of e, which is in the graph, either way.
+     */
+    public void setWeight(Edge e, int weight) {
+        int oldWeight = e.weight;
+        unlink(e);
+        e.weight = weight;
+        link(e);
+        changed(e, oldWeight, weight);
+    }
+
+    /**
+     * @return  the number of edge changes made so far, to tell whether
+     *          anything derived from the graph is out of date
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return  the shortest paths, from DistanceOracle.forGraph() on first
+     *          use and updated with each edge change after, until a node
+     *          is added
+     */
+    public DistanceOracle getDistanceOracle() {
+        if (oracle == null)
+            oracle = DistanceOracle.forGraph(this);
+        return oracle;
+    }
+
+    /**
+     * @return  the graph as it is now in compressed sparse rows, made
+     *          again only after a change
+     */
+    public GraphSnapshot getSnapshot() {
+        if (snapshot == null || snapshotVersion != version) {
+            snapshot = new GraphSnapshot(this);
+            snapshotVersion = version;
         }
+        return snapshot;
+    }
+
+    /**
+     * use o for getDistanceOracle(), e.g. a MappedDistances
+     */
+    public void setDistanceOracle(DistanceOracle o) {
+        oracle = o;
+    }
 
+    private void changed(Edge e, int oldWeight, int weight) {
+        version++;
+        if (oracle != null)
+            oracle.edgeChanged(getNodeIndex(e.from), getNodeIndex(e.to),
+                    oldWeight, weight);
+    }
+
+    private void link(Edge e) {
         // Add edge to adjacency map for quick look up
         if (!adjacencies.containsKey(e.from)) {
             adjacencies.put(e.from, new ArrayList<Edge>());
@@ -64,11 +168,13 @@ public class AdjacencyList {
         }
         list = invAdjacencies.get(e.to);
         insert(list, e);        // keep list sorted
-
-        addNode(e.from);
-        addNode(e.to);
     }
 
+    /**
+     * @return  half of each node's cheapest in and out edges summed, a
+     *          cheap lower bound on any circuit through all nodes; see
+     *          DegreeCover for a tight one, at O(n^3)
+     */
     public int getCircuitLowerBound() {
         int w = 0;
         for (Node n: nodeList) {
@@ -93,15 +199,25 @@ public class AdjacencyList {
     }
 
     public void removeEdge(Edge e) {
+        if (unlink(e))
+            changed(e, e.weight, DistanceOracle.INFINITY);
+    }
+
+    /**
+     * @return  true if e was in the graph
+     */
+    private boolean unlink(Edge e) {
+        boolean found = false;
         ArrayList<Edge> list = adjacencies.get(e.from);
         if (list != null) {
-            list.remove(e);
+            found = list.remove(e);
         }
 
         list = invAdjacencies.get(e.to);
         if (list != null) {
             list.remove(e);
         }
+        return found;
     }
 
     public ArrayList<Edge> getOutEdges(Node source){
@@ -0,0 +1,463 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Simulated annealing over the same tours as Kpermute: an order of all the
+ * machines' nodes, each step taking the shortest path to the next, and
+ * costing the sum of those distances.
+ *
+ * Three moves, each scored in O(1):
+ *
+ *   swap     exchange two nodes
+ *   or-opt   move a run of 1 to 3 nodes elsewhere, keeping its order
+ *   2-opt    reverse a run.  The distances are not symmetric, so the run's
+ *            own edges change direction too; they are scored from prefix
+ *            sums of what turning each step of the tour around costs.
+ *            An accepted move looks up the distances of just the steps
+ *            it changes, and shifts the sums after them, O(n) additions.
+ *
+ * The or-opt and 2-opt moves are aimed: they pick a node u and one of
+ * its NEAR closest successors v, and try to make v follow u, finding both
+ * through the position index.
+ *
+ * A worse move is accepted with probability exp(-delta/T).  T falls
+ * geometrically over the time budget, from a start estimated by sampling
+ * random moves down to a thousandth of it.  With a tabu tenure set, the
+ * nodes of an accepted move (for or-opt, the whole run and the node it
+ * goes after) can't be moved again for that many steps unless it gives a
+ * new best tour.
+ *
+ * The best tour is expanded with Kpermute.getEdges and pruned of
+ * redundant edges.
+ */
+public class Annealing {
+    static final int MAX_RUN = 3;
+    static final int NEAR = 8;
+
+    AdjacencyList graph;
+    DistanceOracle oracle;
+    int nNodes;
+    int[] dist;                 // row i in [i*n, (i+1)*n), or null
+    int[][] near;               // closest successors of each node
+
+    long timeLimit = 5000;      // milliseconds
+    int tenure = 0;
+    SplittableRandom random = new SplittableRandom(FloydWarshall.INFINITY);
+
+    // the current tour and the position of each node in it
+    int[] tour;
+    int[] pos;
+    long weight;
+    // turns[k]: what reversing steps 1 to k of the tour costs, step i
+    // being tour[i] back to tour[i-1] less tour[i-1] to tour[i]
+    long[] turns;
+    long[] tabu;
+    long step;
+
+    // the move last scored by one of the delta methods
+    int moveType;
+    int moveI;
+    int moveJ;
+    int moveLength;
+    int[] run = new int[MAX_RUN];
+
+    public Annealing(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        oracle = graph.getDistanceOracle();
+        dist = oracle.getDistances();
+        tour = new int[nNodes];
+        pos = new int[nNodes];
+        turns = new long[nNodes];
+        tabu = new long[nNodes];
+
+        near = new int[nNodes][Math.min(NEAR, nNodes - 1)];
+        boolean[] taken = new boolean[nNodes];
+        for (int u=0; u<nNodes; u++) {
+            Arrays.fill(taken, false);
+            taken[u] = true;
+            for (int k=0; k<near[u].length; k++) {
+                int best = -1;
+                for (int v=0; v<nNodes; v++) {
+                    if (!taken[v] && (best < 0 || d(u, v) < d(u, best)))
+                        best = v;
+                }
+                taken[best] = true;
+                near[u][k] = best;
+            }
+        }
+    }
+
+    public void setTimeLimit(long ms) {
+        timeLimit = ms;
+    }
+
+    /**
+     * forbid moving the nodes of an accepted move for the next n steps;
+     * 0 turns the tabu list off
+     */
+    public void setTabuTenure(int n) {
+        tenure = n;
+    }
+
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return  the edges of the best tour found within the time limit, or
+     *          null if the graph is not strongly connected
+     */
+    public ArrayList<Edge> getSolution() {
+        if (nNodes <= 1)
+            return new ArrayList<Edge>();
+        int[] best = anneal();
+        if (getWeight(best) >= DistanceOracle.INFINITY)
+            return null;
+        ArrayList<Edge> solution = new Kpermute(graph).getEdges(oracle, best);
+        Edmonds.removeRedundant(graph, solution);
+        return solution;
+    }
+
+    /**
+     * @return  the best tour found
+     */
+    private int[] anneal() {
+        int n = nNodes;
+        for (int i=0; i<n; i++)
+            tour[i] = i;
+        for (int k=n; k>1; k--) {
+            int i = random.nextInt(k);
+            int j = tour[i];
+            tour[i] = tour[k-1];
+            tour[k-1] = j;
+        }
+        for (int i=0; i<n; i++)
+            pos[tour[i]] = i;
+        weight = getWeight(tour);
+        buildTurns();
+        Arrays.fill(tabu, 0);
+        int[] best = tour.clone();
+        long bestWeight = weight;
+        if (n < 3)
+            return best;
+
+        double t0 = getStartTemperature();
+        double tEnd = t0 / 1000;
+        long start = System.currentTimeMillis();
+        double t = t0;
+        long accepted = 0;
+        for (step=0; ; step++) {
+            if ((step & 255) == 0) {
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed >= timeLimit)
+                    break;
+                t = t0 * Math.pow(tEnd / t0, (double)elapsed / timeLimit);
+            }
+            long delta = randomMove();
+            if (delta == Long.MAX_VALUE)
+                continue;
+            boolean aspire = weight + delta < bestWeight;
+            if (!aspire && isTabu())
+                continue;
+            if (delta > 0 && random.nextDouble() >= Math.exp(-delta / t))
+                continue;
+            applyMove();
+            weight += delta;
+            accepted++;
+            if (weight < bestWeight) {
+                bestWeight = weight;
+                System.arraycopy(tour, 0, best, 0, n);
+            }
+        }
+        if (Debug.isOn()) {
+            Debug.println("steps = " + step + ", accepted = " + accepted);
+            Debug.println("start temperature = " + (long)t0);
+        }
+        return best;
+    }
+
+    /**
+     * a temperature at which half of the uphill moves from the starting
+     * tour are accepted
+     */
+    private double getStartTemperature() {
+        long sum = 0;
+        int count = 0;
+        for (int i=0; i<1000; i++) {
+            long delta = randomMove();
+            if (delta != Long.MAX_VALUE && delta > 0) {
+                sum += delta;
+                count++;
+            }
+        }
+        if (count == 0)
+            return 1;
+        return (double)sum / count / Math.log(2);
+    }
+
+    /**
+     * score a random move, leaving it in moveType etc.
+     *
+     * @return  the change in weight, or Long.MAX_VALUE if the move is
+     *          not possible in this tour
+     */
+    private long randomMove() {
+        int n = nNodes;
+        int move = random.nextInt(3);
+        if (move == 0)
+            return swapDelta(random.nextInt(n), random.nextInt(n));
+        int u = random.nextInt(n);
+        int v = near[u][random.nextInt(near[u].length)];
+        if (move == 1) {
+            int length = 1 + random.nextInt(MAX_RUN);
+            if (length + 2 > n || pos[v] + length > n)
+                return Long.MAX_VALUE;
+            return orOptDelta(pos[v], length, pos[u]);
+        }
+        if (n < 4)
+            return Long.MAX_VALUE;
+        // reverse from u's successor to v; if v comes first, a random run
+        if (pos[v] > pos[u])
+            return twoOptDelta(pos[u] + 1, pos[v]);
+        int i = 1 + random.nextInt(n - 1);
+        int j = 1 + random.nextInt(n - 1);
+        return twoOptDelta(Math.min(i, j), Math.max(i, j));
+    }
+
+    private int d(int u, int v) {
+        if (dist == null)
+            return oracle.getShortestDistance(u, v);
+        return dist[u*nNodes + v];
+    }
+
+    private int at(int i) {
+        int n = nNodes;
+        return tour[(i + n) % n];
+    }
+
+    /**
+     * exchange the nodes at positions i and j
+     */
+    private long swapDelta(int i, int j) {
+        if (i == j)
+            return Long.MAX_VALUE;
+        if (i > j) {
+            int k = i;
+            i = j;
+            j = k;
+        }
+        moveType = 0;
+        moveI = i;
+        moveJ = j;
+        int n = nNodes;
+        int a = tour[i], b = tour[j];
+        if (j == i + 1 || (i == 0 && j == n - 1)) {
+            // adjacent: ... p a b q ... becomes ... p b a q ...
+            if (i == 0 && j == n - 1) {
+                int k = a;
+                a = b;
+                b = k;
+                i = n - 1;
+            }
+            int p = at(i - 1), q = at(i + 2);
+            if (n == 3)
+                return (long)d(b, a) + d(a, p) + d(p, b) -
+                    d(a, b) - d(b, p) - d(p, a);
+            return (long)d(p, b) + d(b, a) + d(a, q) -
+                d(p, a) - d(a, b) - d(b, q);
+        }
+        int pa = at(i - 1), qa = at(i + 1);
+        int pb = at(j - 1), qb = at(j + 1);
+        return (long)d(pa, b) + d(b, qa) + d(pb, a) + d(a, qb) -
+            d(pa, a) - d(a, qa) - d(pb, b) - d(b, qb);
+    }
+
+    /**
+     * move the run of length nodes at i, keeping its order, to just after
+     * the node at position k
+     */
+    private long orOptDelta(int i, int length, int k) {
+        int n = nNodes;
+        int last = i + length - 1;
+        int prev = (i + n - 1) % n;
+        if ((k >= i && k <= last) || k == prev)
+            return Long.MAX_VALUE;
+        moveType = 1;
+        moveI = i;
+        moveJ = k;
+        moveLength = length;
+        int p = tour[prev], q = at(last + 1);
+        int f = tour[i], l = tour[last];
+        int x = tour[k], y = at(k + 1);
+        return (long)d(p, q) + d(x, f) + d(l, y) -
+            d(p, f) - d(l, q) - d(x, y);
+    }
+
+    /**
+     * reverse the run from position i to j, 0 < i < j
+     */
+    private long twoOptDelta(int i, int j) {
+        if (i == j)
+            return Long.MAX_VALUE;
+        moveType = 2;
+        moveI = i;
+        moveJ = j;
+        int a = tour[i-1], b = tour[i], c = tour[j], e = at(j + 1);
+        long inside = turns[j] - turns[i];
+        return inside + d(a, c) + d(b, e) - d(a, b) - d(c, e);
+    }
+
+    private void buildTurns() {
+        for (int k=1; k<nNodes; k++)
+            turns[k] = turns[k-1] + turn(k);
+    }
+
+    /**
+     * the sums over the steps into positions lo to hi, which a move
+     * changed, and after them
+     */
+    private void updateTurns(int lo, int hi) {
+        int n = nNodes;
+        lo = Math.max(lo, 1);
+        hi = Math.min(hi, n - 1);
+        if (lo > hi)
+            return;
+        long old = turns[hi];
+        for (int k=lo; k<=hi; k++)
+            turns[k] = turns[k-1] + turn(k);
+        long shift = turns[hi] - old;
+        if (shift != 0) {
+            for (int k=hi+1; k<n; k++)
+                turns[k] += shift;
+        }
+    }
+
+    private long turn(int k) {
+        return (long)d(tour[k], tour[k-1]) - d(tour[k-1], tour[k]);
+    }
+
+    /**
+     * @return  true if the last scored move moves a tabu node
+     */
+    private boolean isTabu() {
+        if (tenure == 0)
+            return false;
+        switch (moveType) {
+        case 0:
+            return tabu[tour[moveI]] > step || tabu[tour[moveJ]] > step;
+        case 1:
+            for (int t=0; t<moveLength; t++) {
+                if (tabu[tour[moveI + t]] > step)
+                    return true;
+            }
+            return tabu[tour[moveJ]] > step;
+        default:
+            return tabu[tour[moveI]] > step || tabu[tour[moveJ]] > step;
+        }
+    }
+
+    /**
+     * apply the last scored move to the tour
+     */
+    private void applyMove() {
+        int n = nNodes;
+        int i = moveI, j = moveJ;
+        int from, to;
+        if (tenure > 0) {
+            long until = step + tenure;
+            tabu[tour[i]] = until;
+            tabu[tour[j]] = until;      // or-opt: the node the run goes after
+            if (moveType == 1) {
+                for (int t=1; t<moveLength; t++)
+                    tabu[tour[i + t]] = until;
+            }
+        }
+        switch (moveType) {
+        case 0:
+            int k = tour[i];
+            tour[i] = tour[j];
+            tour[j] = k;
+            from = i;
+            to = j;
+            break;
+        case 1:
+            int length = moveLength;
+            System.arraycopy(tour, i, run, 0, length);
+            if (j > i) {
+                System.arraycopy(tour, i + length, tour, i, j - i - length + 1);
+                System.arraycopy(run, 0, tour, j - length + 1, length);
+                from = i;
+                to = j;
+            } else {
+                System.arraycopy(tour, j + 1, tour, j + 1 + length, i - j - 1);
+                System.arraycopy(run, 0, tour, j + 1, length);
+                from = j + 1;
+                to = i + length - 1;
+            }
+            break;
+        default:
+            for (int a=i, b=j; a < b; a++, b--) {
+                int c = tour[a];
+                tour[a] = tour[b];
+                tour[b] = c;
+            }
+            from = i;
+            to = j;
+            break;
+        }
+        for (int p=from; p<=to; p++)
+            pos[tour[p]] = p;
+        if (moveType == 0) {
+            updateTurns(i, i + 1);
+            updateTurns(j, j + 1);
+        } else {
+            updateTurns(from, to + 1);
+        }
+    }
+
+    private long getWeight(int[] t) {
+        long w = 0;
+        for (int i=0; i<t.length; i++)
+            w += d(t[i], t[(i + 1) % t.length]);
+        return w;
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+        long seconds = 5;
+        int tenure = 0;
+        long seed = FloydWarshall.INFINITY;
+        int first = 0;
+        while (args.length > first + 1 && args[first].startsWith("-")) {
+            if (args[first].equals("-s"))
+                seconds = Long.parseLong(args[first+1]);
+            else if (args[first].equals("-tabu"))
+                tenure = Integer.parseInt(args[first+1]);
+            else if (args[first].equals("-seed"))
+                seed = Long.parseLong(args[first+1]);
+            else
+                break;
+            first += 2;
+        }
+	if (args.length <= first) {
+	    System.out.println("Usage: Annealing [-s seconds] [-tabu tenure] [-seed seed] <inputfile> ...");
+	    return;
+	}
+        for (int i=first; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            AdjacencyList graph = Facebull.loadFile(file);
+            Annealing solver = new Annealing(graph);
+            solver.setTimeLimit(seconds * 1000);
+            solver.setTabuTenure(tenure);
+            solver.setSeed(seed);
+            ArrayList<Edge> edges = solver.getSolution();
+            EdgeSetSearch search = new EdgeSetSearch(graph);
+            edges = search.improve(edges);
+            Debug.println("recovered = " + search.getRecovered());
+            Facebull.printSolution(edges);
+        }
+    }
+}
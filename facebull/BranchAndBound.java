@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Exact branch and bound over edge decisions.
+ *
+ * Unlike Subsets, which restarts a search for every subset size m, this
+ * runs a single search and has no limit on the number of edges.  At each
+ * search node it picks the most constrained requirement that the chosen
+ * edges do not meet yet:
+ *
+ *   - an uncovered node with the fewest undecided incoming or outgoing
+ *     edges left, or
+ *   - once every node is covered, a cut that no chosen edge crosses: an
+ *     edge must leave the set of nodes reachable from node 0, or enter the
+ *     set of nodes that reach node 0.
+ *
+ * It then branches on the candidate edges cheapest first: the k-th branch
+ * takes the k-th candidate and excludes the k-1 cheaper ones, so the
+ * branches partition the solutions.
+ *
+ * Search nodes that pass the cheap per-node bound are also bounded by the
+ * minimum degree cover of the current edge decisions (see DegreeCover),
+ * which is kept in step with every include, exclude and undo.
+ */
+public class BranchAndBound {
+    final int INFINITY = Integer.MAX_VALUE;
+
+    static final int UNDECIDED = 0;
+    static final int IN = 1;
+    static final int OUT = 2;
+
+    AdjacencyList graph;
+    Edge[] allEdgesArray;
+    int nNodes;
+    int nEdges;
+    int[] weights;
+    int[] edgeFrom;
+    int[] edgeTo;
+
+    // incoming and outgoing edge indexes of each node, cheapest first
+    int[][] inList;
+    int[][] outList;
+
+    int[] state;
+    int[] inCount;              // chosen incoming edges of each node
+    int[] outCount;             // chosen outgoing edges of each node
+    int[] trail;                // edges whose state changed, for undo
+    int trailTop;
+    DegreeCover cover;
+
+    int minWeight;
+    boolean found;
+    int[] minEdges;
+    int minEdgesLength;
+    long nodeCount;
+
+    // scratch for reachability searches
+    int[] queue;
+    int[] seen;
+    int stamp;
+
+    public BranchAndBound(AdjacencyList g) {
+        graph = g;
+        minWeight = INFINITY;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        Collections.sort(allEdges, new EdgeWeightComparator());
+        nEdges = allEdges.size();
+        allEdgesArray = allEdges.toArray(new Edge[nEdges]);
+        weights = new int[nEdges];
+        edgeFrom = new int[nEdges];
+        edgeTo = new int[nEdges];
+        int[] inDegree = new int[nNodes];
+        int[] outDegree = new int[nNodes];
+        for (int i=0; i<nEdges; i++) {
+            weights[i] = allEdgesArray[i].weight;
+            edgeFrom[i] = graph.getNodeIndex(allEdgesArray[i].from);
+            edgeTo[i] = graph.getNodeIndex(allEdgesArray[i].to);
+            outDegree[edgeFrom[i]]++;
+            inDegree[edgeTo[i]]++;
+        }
+        inList = new int[nNodes][];
+        outList = new int[nNodes][];
+        for (int v=0; v<nNodes; v++) {
+            inList[v] = new int[inDegree[v]];
+            outList[v] = new int[outDegree[v]];
+        }
+        Arrays.fill(inDegree, 0);
+        Arrays.fill(outDegree, 0);
+        for (int i=0; i<nEdges; i++) {
+            outList[edgeFrom[i]][outDegree[edgeFrom[i]]++] = i;
+            inList[edgeTo[i]][inDegree[edgeTo[i]]++] = i;
+        }
+
+        state = new int[nEdges];
+        inCount = new int[nNodes];
+        outCount = new int[nNodes];
+        trail = new int[nEdges];
+        minEdges = new int[nEdges];
+        queue = new int[nNodes];
+        seen = new int[nNodes];
+        cover = new DegreeCover(nNodes, edgeFrom, edgeTo, weights);
+    }
+
+    public void solve(int weight) {
+        minWeight = weight;
+        solve();
+    }
+
+    public void solve() {
+        Facebull.printSolution(getSolution());
+    }
+
+    public ArrayList<Edge> getSolution(int weight) {
+        minWeight = weight;
+        return getSolution();
+    }
+
+    /**
+     * run the search and return the cheapest edge set found, or null if
+     * none beats the initial weight.
+     */
+    public ArrayList<Edge> getSolution() {
+        long start = System.currentTimeMillis();
+        found = false;
+        nodeCount = 0;
+        if (nNodes > 0)
+            search(0);
+        long elapsed = System.currentTimeMillis() - start;
+        if (Debug.isOn()) {
+            double t = elapsed/1000.0;
+            Debug.println("elapsed time = " + t);
+            Debug.println("search nodes = " + nodeCount);
+        }
+        if (!found)
+            return null;
+        ArrayList<Edge> edgeList = new ArrayList<Edge>();
+        for (int i=0; i<minEdgesLength; i++)
+            edgeList.add(allEdgesArray[minEdges[i]]);
+        return edgeList;
+    }
+
+    private void search(int weight) {
+        nodeCount++;
+
+        // find the uncovered node with the fewest candidate edges, and the
+        // cheapest candidate edges of the uncovered nodes
+        int best = -1;
+        boolean bestIn = true;
+        int bestCount = INFINITY;
+        long lbIn = 0, lbOut = 0;
+        for (int v=0; v<nNodes; v++) {
+            if (inCount[v] == 0) {
+                int c = 0, cheapest = -1;
+                for (int e : inList[v]) {
+                    if (state[e] == UNDECIDED) {
+                        if (cheapest < 0)
+                            cheapest = e;
+                        c++;
+                    }
+                }
+                if (c == 0)
+                    return;
+                lbIn += weights[cheapest];
+                if (c < bestCount) {
+                    best = v;
+                    bestIn = true;
+                    bestCount = c;
+                }
+            }
+            if (outCount[v] == 0) {
+                int c = 0, cheapest = -1;
+                for (int e : outList[v]) {
+                    if (state[e] == UNDECIDED) {
+                        if (cheapest < 0)
+                            cheapest = e;
+                        c++;
+                    }
+                }
+                if (c == 0)
+                    return;
+                lbOut += weights[cheapest];
+                if (c < bestCount) {
+                    best = v;
+                    bestIn = false;
+                    bestCount = c;
+                }
+            }
+        }
+        if (pruned(weight + Math.max(lbIn, lbOut)))
+            return;
+
+        // the chosen and undecided edges must still connect every node
+        if (reach(0, true, false) != nNodes || reach(0, false, false) != nNodes)
+            return;
+        if (pruned(cover.getBound()))
+            return;
+
+        int[] candidates;
+        if (best >= 0) {
+            int[] list = bestIn ? inList[best] : outList[best];
+            candidates = new int[bestCount];
+            int c = 0;
+            for (int e : list) {
+                if (state[e] == UNDECIDED)
+                    candidates[c++] = e;
+            }
+        } else if (reach(0, true, true) != nNodes) {
+            candidates = cut(true);
+        } else if (reach(0, false, true) != nNodes) {
+            candidates = cut(false);
+        } else {
+            foundSolution(weight);
+            return;
+        }
+
+        int base = trailTop;
+        for (int e : candidates) {
+            int mark = trailTop;
+            include(e);
+            search(weight + weights[e]);
+            undo(mark);
+            exclude(e);
+        }
+        undo(base);
+    }
+
+    /**
+     * @return  true if a partial solution whose completions weigh at least
+     *          lb can be discarded
+     */
+    private boolean pruned(long lb) {
+        return lb > minWeight || (found && lb == minWeight);
+    }
+
+    /**
+     * @return  the undecided edges crossing the cut around the nodes marked
+     *          by the last reach(): leaving them if forward, else entering
+     *          them
+     */
+    private int[] cut(boolean forward) {
+        int c = 0;
+        int[] candidates = new int[nEdges];
+        for (int e=0; e<nEdges; e++) {
+            if (state[e] != UNDECIDED)
+                continue;
+            boolean fromIn = seen[edgeFrom[e]] == stamp;
+            boolean toIn = seen[edgeTo[e]] == stamp;
+            if (forward ? (fromIn && !toIn) : (toIn && !fromIn))
+                candidates[c++] = e;
+        }
+        return Arrays.copyOf(candidates, c);
+    }
+
+    /**
+     * Count the nodes reachable from (forward) or reaching (!forward) node
+     * root, over the chosen edges only, or over the chosen and undecided
+     * edges.  The nodes found are left marked with the current stamp.
+     */
+    private int reach(int root, boolean forward, boolean chosenOnly) {
+        stamp++;
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        seen[root] = stamp;
+        while (head < tail) {
+            int v = queue[head++];
+            int[] list = forward ? outList[v] : inList[v];
+            for (int e : list) {
+                if (state[e] == OUT || (chosenOnly && state[e] != IN))
+                    continue;
+                int w = forward ? edgeTo[e] : edgeFrom[e];
+                if (seen[w] != stamp) {
+                    seen[w] = stamp;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return tail;
+    }
+
+    private void include(int e) {
+        state[e] = IN;
+        inCount[edgeTo[e]]++;
+        outCount[edgeFrom[e]]++;
+        trail[trailTop++] = e;
+        cover.fixIn(e);
+    }
+
+    private void exclude(int e) {
+        state[e] = OUT;
+        trail[trailTop++] = e;
+        cover.fixOut(e);
+    }
+
+    private void undo(int mark) {
+        while (trailTop > mark) {
+            int e = trail[--trailTop];
+            if (state[e] == IN) {
+                inCount[edgeTo[e]]--;
+                outCount[edgeFrom[e]]--;
+            }
+            state[e] = UNDECIDED;
+            cover.release(e);
+        }
+    }
+
+    private void foundSolution(int weight) {
+        Debug.println(2, "w=" + weight);
+        minWeight = weight;
+        found = true;
+        minEdgesLength = 0;
+        for (int e=0; e<nEdges; e++) {
+            if (state[e] == IN)
+                minEdges[minEdgesLength++] = e;
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+	if (args.length < 1) {
+	    System.out.println("Usage: BranchAndBound <inputfile> ...");
+	    return;
+	}
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            Reduction reduction = new Reduction(Facebull.loadFile(file));
+            AdjacencyList graph = reduction.getGraph();
+            if (reduction.isSolved()) {
+                Facebull.printSolution(reduction.getFixedEdges());
+                continue;
+            }
+            ArrayList<Edge> edges = EdgeSetSearch.getSeed(graph);
+            int w = (edges == null) ? Integer.MAX_VALUE :
+                Edge.getTotalWeight(edges);
+
+            BranchAndBound solver = new BranchAndBound(graph);
+            Facebull.printSolution(reduction.expand(solver.getSolution(w)));
+        }
+    }
+}
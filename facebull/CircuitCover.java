@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/**
+ * Build a solution as a union of elementary circuits.
+ *
+ * Every edge of a minimal strongly connected set lies on a circuit of the
+ * set, and a union of circuits that overlap in a connected way is strongly
+ * connected.  So starting from a circuit through node 0 and repeatedly
+ * adding a circuit that touches the covered nodes and covers at least one
+ * new node reaches every minimal solution: some edge of the solution
+ * leaves the covered nodes, and a circuit of the solution goes through it.
+ *
+ * The unions are searched best first.  A union costs the weight of its
+ * distinct edges, so a circuit sharing edges with the union only adds the
+ * weight of its new edges, and the cost only depends on the edge set: a
+ * set is queued once, however its circuits were ordered.  The estimate is
+ * the cost plus the cheapest incoming (or outgoing) edges of the nodes
+ * not covered yet, so the first complete union taken from the queue is
+ * optimal.
+ *
+ * The circuits come from CircuitGenerator, bounded by the initial weight.
+ * This only pays off on sparse graphs, where there are few circuits: if
+ * there are more than maxCircuits, or the queue grows past maxStates, the
+ * search stops and returns the best complete union it has seen, if any.
+ */
+public class CircuitCover {
+    final int INFINITY = Integer.MAX_VALUE;
+
+    AdjacencyList graph;
+    CircuitGenerator generator;
+    int nNodes;
+    int nEdges;
+    int nWords;
+    long allMask;
+    int[] weights;
+    int[] minIn;
+    int[] minOut;
+
+    // the edge set and node set of each circuit
+    ArrayList<long[]> circuitEdges;
+    ArrayList<Long> circuitNodes;
+
+    int maxCircuits = 200000;
+    int maxStates = 2000000;
+    int minWeight;
+    boolean exact;
+    long stateCount;
+
+    public CircuitCover(AdjacencyList g) {
+        graph = g;
+        minWeight = INFINITY;
+        nNodes = graph.getNodeList().size();
+        generator = new CircuitGenerator(graph);
+        nEdges = generator.getEdgeCount();
+        nWords = (nEdges + 63) >>> 6;
+        allMask = (nNodes == 64) ? -1L : (1L << nNodes) - 1;
+        weights = new int[nEdges];
+        minIn = new int[nNodes];
+        minOut = new int[nNodes];
+        Arrays.fill(minIn, INFINITY);
+        Arrays.fill(minOut, INFINITY);
+        for (int i=0; i<nEdges; i++) {
+            Edge e = generator.getEdge(i);
+            weights[i] = e.weight;
+            int u = graph.getNodeIndex(e.from);
+            int v = graph.getNodeIndex(e.to);
+            minOut[u] = Math.min(minOut[u], e.weight);
+            minIn[v] = Math.min(minIn[v], e.weight);
+        }
+    }
+
+    public void setMaxCircuits(int n) {
+        maxCircuits = n;
+    }
+
+    public void setMaxStates(int n) {
+        maxStates = n;
+    }
+
+    /**
+     * @return  true if the last getSolution() searched every union, so its
+     *          answer is optimal
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    public void solve(int weight) {
+        minWeight = weight;
+        solve();
+    }
+
+    public ArrayList<Edge> getSolution(int weight) {
+        minWeight = weight;
+        return getSolution();
+    }
+
+    public void solve() {
+        Facebull.printSolution(getSolution());
+    }
+
+    /**
+     * @return  the cheapest union of circuits found, or null if there is
+     *          none weighing at most the initial weight
+     */
+    public ArrayList<Edge> getSolution() {
+        if (nNodes > 64) {
+            System.out.println("CircuitCover: too many nodes: " + nNodes);
+            return null;
+        }
+        if (nNodes <= 1)
+            return new ArrayList<Edge>();
+        long start = System.currentTimeMillis();
+        exact = loadCircuits();
+        State best = search();
+        long elapsed = System.currentTimeMillis() - start;
+        if (Debug.isOn()) {
+            double t = elapsed/1000.0;
+            Debug.println("elapsed time = " + t);
+            Debug.println("circuits = " + circuitEdges.size());
+            Debug.println("search states = " + stateCount);
+            Debug.println(exact ? "exact" : "not exact");
+        }
+        if (best == null)
+            return null;
+        ArrayList<Edge> solution = new ArrayList<Edge>();
+        for (int i=0; i<nEdges; i++) {
+            if ((best.edges[i >>> 6] & (1L << i)) != 0)
+                solution.add(generator.getEdge(i));
+        }
+        return solution;
+    }
+
+    /**
+     * @return  false if there were more than maxCircuits circuits
+     */
+    private boolean loadCircuits() {
+        circuitEdges = new ArrayList<long[]>();
+        circuitNodes = new ArrayList<Long>();
+        generator.setMaxWeight(minWeight);
+        while (generator.hasMore()) {
+            if (circuitEdges.size() == maxCircuits)
+                return false;
+            int[] circuit = generator.getNext();
+            long[] edges = new long[nWords];
+            long nodes = 0;
+            for (int i=0; i<generator.getLength(); i++) {
+                int e = circuit[i];
+                edges[e >>> 6] |= 1L << e;
+                nodes |= 1L << graph.getNodeIndex(generator.getEdge(e).to);
+            }
+            circuitEdges.add(edges);
+            circuitNodes.add(nodes);
+        }
+        return true;
+    }
+
+    private State search() {
+        PriorityQueue<State> queue = new PriorityQueue<State>();
+        HashSet<State> seen = new HashSet<State>();
+        State best = null;
+        stateCount = 0;
+        queue.add(new State(new long[nWords], 0, 0));
+        while (!queue.isEmpty()) {
+            State s = queue.poll();
+            if (s.covered == allMask)
+                return s;
+            if (s.estimate > minWeight || (best != null &&
+                    s.estimate >= best.cost))
+                continue;
+            for (int c=0; c<circuitEdges.size(); c++) {
+                long nodes = circuitNodes.get(c);
+                if ((nodes & ~s.covered) == 0)
+                    continue;
+                if (s.covered == 0 ? (nodes & 1L) == 0 :
+                        (nodes & s.covered) == 0)
+                    continue;
+                State next = s.add(circuitEdges.get(c), nodes);
+                if (next.estimate > minWeight || !seen.add(next))
+                    continue;
+                stateCount++;
+                if (next.covered == allMask && (best == null ||
+                        next.cost < best.cost))
+                    best = next;
+                queue.add(next);
+            }
+            if (queue.size() > maxStates) {
+                exact = false;
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A union of circuits: its edges, the nodes they cover, its cost, and
+     * the estimated cost of the cheapest solution containing it.
+     */
+    class State implements Comparable<State> {
+        long[] edges;
+        long covered;
+        int cost;
+        int estimate;
+        int hash;
+
+        State(long[] edges, long covered, int cost) {
+            this.edges = edges;
+            this.covered = covered;
+            this.cost = cost;
+            hash = Arrays.hashCode(edges);
+            long in = 0, out = 0;
+            for (long m = allMask & ~covered; m != 0; m &= m - 1) {
+                int v = Long.numberOfTrailingZeros(m);
+                in += minIn[v];
+                out += minOut[v];
+            }
+            estimate = (int)Math.min(cost + Math.max(in, out), INFINITY);
+        }
+
+        State add(long[] circuit, long nodes) {
+            long[] union = new long[nWords];
+            int w = cost;
+            for (int k=0; k<nWords; k++) {
+                union[k] = edges[k] | circuit[k];
+                for (long m = circuit[k] & ~edges[k]; m != 0; m &= m - 1)
+                    w += weights[(k << 6) + Long.numberOfTrailingZeros(m)];
+            }
+            return new State(union, covered | nodes, w);
+        }
+
+        public int compareTo(State s) {
+            if (estimate != s.estimate)
+                return (estimate < s.estimate) ? -1 : 1;
+            return (cost > s.cost) ? -1 : (cost < s.cost) ? 1 : 0;
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof State) &&
+                Arrays.equals(edges, ((State)o).edges);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+	if (args.length < 1) {
+	    System.out.println("Usage: CircuitCover <inputfile> ...");
+	    return;
+	}
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            Reduction reduction = new Reduction(Facebull.loadFile(file));
+            AdjacencyList graph = reduction.getGraph();
+            if (reduction.isSolved()) {
+                Facebull.printSolution(reduction.getFixedEdges());
+                continue;
+            }
+            ArrayList<Edge> edges = EdgeSetSearch.getSeed(graph);
+            int w = (edges == null) ? Integer.MAX_VALUE :
+                Edge.getTotalWeight(edges);
+
+            CircuitCover solver = new CircuitCover(graph);
+            ArrayList<Edge> solution = solver.getSolution(w);
+            // cut off before a complete union: the seed is the best known
+            if (solution == null)
+                solution = edges;
+            Facebull.printSolution(reduction.expand(solution));
+        }
+    }
+}
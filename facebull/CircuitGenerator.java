@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Enumerate the elementary circuits of a graph, one at a time, with
+ * Johnson's algorithm (see papers/circuits_johnson.pdf).
+ *
+ * For each start node s, in index order, the circuits whose smallest node
+ * is s are found by a depth first search from s over the strongly
+ * connected component of s among the nodes >= s.  A node that leads to no
+ * circuit stays blocked until a node it leads to is unblocked.  The search
+ * is iterative and resumes where it stopped, so circuits are produced on
+ * demand and only the current path is stored.
+ *
+ * Circuits heavier than maxWeight or longer than maxLength are skipped,
+ * pruned by the shortest distance (and fewest edges) back to s.  A node
+ * below which something was pruned is not blocked: a cheaper or shorter
+ * path to it later may still close a circuit.
+ *
+ * Usage is like PermutationGenerator:
+ *
+ *   CircuitGenerator cg = new CircuitGenerator(graph);
+ *   while (cg.hasMore()) {
+ *       int[] edges = cg.getNext();
+ *       for (int i=0; i<cg.getLength(); i++)
+ *           ... cg.getEdge(edges[i]) ...
+ *   }
+ */
+public class CircuitGenerator {
+    static final int INFINITY = Integer.MAX_VALUE;
+
+    AdjacencyList graph;
+    int nNodes;
+    Edge[] edges;               // cheapest first
+    int[] edgeFrom;
+    int[] edgeTo;
+    int[] weights;
+    int[][] outList;            // outgoing edge indexes of each node
+    int[][] inList;             // incoming edge indexes of each node
+
+    int maxWeight = INFINITY;
+    int maxLength = INFINITY;
+
+    // Johnson's blocking state for the current start node
+    int start = -1;
+    boolean[] allowed;          // in the component of start among >= start
+    boolean[] blocked;
+    int[][] blockers;           // B(v): nodes to unblock with v
+    int[] blockerCount;
+    boolean[][] inBlockers;
+    int[] dist;                 // shortest distance back to start
+    int[] hops;                 // fewest edges back to start
+
+    // the current path: node, next out edge to try, and whether a circuit
+    // (or a pruned branch) was found below it
+    int depth;
+    int[] pathNode;
+    int[] pathEdge;             // edge from pathNode[i] to pathNode[i+1]
+    int[] cursor;
+    boolean[] found;
+    int pathWeight;
+
+    int[] circuit;
+    int circuitLength;
+    boolean ready;
+    boolean done;
+    long count;
+
+    int[] queue;
+
+    public CircuitGenerator(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        Collections.sort(allEdges, new EdgeWeightComparator());
+        int nEdges = allEdges.size();
+        edges = allEdges.toArray(new Edge[nEdges]);
+        edgeFrom = new int[nEdges];
+        edgeTo = new int[nEdges];
+        weights = new int[nEdges];
+        int[] outDegree = new int[nNodes];
+        int[] inDegree = new int[nNodes];
+        for (int i=0; i<nEdges; i++) {
+            edgeFrom[i] = graph.getNodeIndex(edges[i].from);
+            edgeTo[i] = graph.getNodeIndex(edges[i].to);
+            weights[i] = edges[i].weight;
+            outDegree[edgeFrom[i]]++;
+            inDegree[edgeTo[i]]++;
+        }
+        outList = new int[nNodes][];
+        inList = new int[nNodes][];
+        for (int v=0; v<nNodes; v++) {
+            outList[v] = new int[outDegree[v]];
+            inList[v] = new int[inDegree[v]];
+        }
+        Arrays.fill(outDegree, 0);
+        Arrays.fill(inDegree, 0);
+        for (int i=0; i<nEdges; i++) {
+            outList[edgeFrom[i]][outDegree[edgeFrom[i]]++] = i;
+            inList[edgeTo[i]][inDegree[edgeTo[i]]++] = i;
+        }
+
+        allowed = new boolean[nNodes];
+        blocked = new boolean[nNodes];
+        blockers = new int[nNodes][nNodes];
+        blockerCount = new int[nNodes];
+        inBlockers = new boolean[nNodes][nNodes];
+        dist = new int[nNodes];
+        hops = new int[nNodes];
+        pathNode = new int[nNodes];
+        pathEdge = new int[nNodes];
+        cursor = new int[nNodes];
+        found = new boolean[nNodes];
+        circuit = new int[nNodes];
+        queue = new int[nNodes];
+    }
+
+    /**
+     * skip circuits weighing more than w.  Must be set before the first
+     * circuit is generated.
+     */
+    public void setMaxWeight(int w) {
+        maxWeight = w;
+    }
+
+    /**
+     * skip circuits with more than n edges.  Must be set before the first
+     * circuit is generated.
+     */
+    public void setMaxLength(int n) {
+        maxLength = n;
+    }
+
+    public boolean hasMore() {
+        if (!ready && !done)
+            advance();
+        return ready;
+    }
+
+    /**
+     * @return  the edge indexes of the next circuit in its first
+     *          getLength() entries.  The array is reused by the next call.
+     */
+    public int[] getNext() {
+        if (!hasMore())
+            return null;
+        ready = false;
+        count++;
+        return circuit;
+    }
+
+    /**
+     * @return  number of edges in the circuit returned by getNext()
+     */
+    public int getLength() {
+        return circuitLength;
+    }
+
+    /**
+     * @return  number of circuits returned so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getEdgeCount() {
+        return edges.length;
+    }
+
+    public Edge getEdge(int index) {
+        return edges[index];
+    }
+
+    /**
+     * @return  the edges of the circuit returned by getNext()
+     */
+    public ArrayList<Edge> getCircuit() {
+        ArrayList<Edge> list = new ArrayList<Edge>(circuitLength);
+        for (int i=0; i<circuitLength; i++)
+            list.add(edges[circuit[i]]);
+        return list;
+    }
+
+    /**
+     * run the search until it finds the next circuit or runs out
+     */
+    private void advance() {
+        while (true) {
+            if (depth == 0) {
+                if (start + 1 >= nNodes) {
+                    done = true;
+                    return;
+                }
+                startFrom(start + 1);
+                continue;
+            }
+            int top = depth - 1;
+            int v = pathNode[top];
+            if (cursor[top] == outList[v].length) {
+                finish(v, top);
+                continue;
+            }
+            int e = outList[v][cursor[top]++];
+            int w = edgeTo[e];
+            if (!allowed[w])
+                continue;
+            long weight = (long)pathWeight + weights[e];
+            if (w == start) {
+                if (weight <= maxWeight && depth <= maxLength) {
+                    System.arraycopy(pathEdge, 0, circuit, 0, top);
+                    circuit[top] = e;
+                    circuitLength = depth;
+                    found[top] = true;
+                    ready = true;
+                    return;
+                }
+                found[top] = true;
+            } else if (!blocked[w]) {
+                if (weight + dist[w] > maxWeight ||
+                        (long)depth + hops[w] > maxLength) {
+                    found[top] = true;
+                    continue;
+                }
+                pathEdge[top] = e;
+                pathWeight = (int)weight;
+                push(w);
+            }
+        }
+    }
+
+    private void push(int v) {
+        pathNode[depth] = v;
+        cursor[depth] = 0;
+        found[depth] = false;
+        blocked[v] = true;
+        depth++;
+    }
+
+    /**
+     * all edges out of v (at path position top) are done: unblock it if a
+     * circuit went through it, else block it behind its neighbors
+     */
+    private void finish(int v, int top) {
+        if (found[top]) {
+            unblock(v);
+        } else {
+            for (int e : outList[v]) {
+                int w = edgeTo[e];
+                if (allowed[w] && !inBlockers[w][v]) {
+                    inBlockers[w][v] = true;
+                    blockers[w][blockerCount[w]++] = v;
+                }
+            }
+        }
+        depth--;
+        if (depth > 0) {
+            found[depth-1] |= found[top];
+            pathWeight -= weights[pathEdge[depth-1]];
+        }
+    }
+
+    private void unblock(int v) {
+        int tail = 0;
+        blocked[v] = false;
+        queue[tail++] = v;
+        while (tail > 0) {
+            int u = queue[--tail];
+            for (int i=0; i<blockerCount[u]; i++) {
+                int w = blockers[u][i];
+                inBlockers[u][w] = false;
+                if (blocked[w]) {
+                    blocked[w] = false;
+                    queue[tail++] = w;
+                }
+            }
+            blockerCount[u] = 0;
+        }
+    }
+
+    /**
+     * set up the search for the circuits whose smallest node is s
+     */
+    private void startFrom(int s) {
+        start = s;
+        for (int v=0; v<nNodes; v++) {
+            blocked[v] = false;
+            for (int i=0; i<blockerCount[v]; i++)
+                inBlockers[v][blockers[v][i]] = false;
+            blockerCount[v] = 0;
+        }
+
+        // the component of s among the nodes >= s: reachable from s, and
+        // with a finite distance back to s
+        boolean[] reached = new boolean[nNodes];
+        int head = 0, tail = 0;
+        queue[tail++] = s;
+        reached[s] = true;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e : outList[v]) {
+                int w = edgeTo[e];
+                if (w > s && !reached[w]) {
+                    reached[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        shortestBack(s, reached);
+        for (int v=0; v<nNodes; v++)
+            allowed[v] = reached[v] && dist[v] != INFINITY;
+
+        pathWeight = 0;
+        if (outList[s].length > 0)
+            push(s);
+    }
+
+    /**
+     * Dijkstra (and a breadth first search for edge counts) backwards
+     * from s over the nodes in set, O(n^2)
+     */
+    private void shortestBack(int s, boolean[] set) {
+        Arrays.fill(dist, INFINITY);
+        Arrays.fill(hops, INFINITY);
+        boolean[] settled = new boolean[nNodes];
+        dist[s] = 0;
+        while (true) {
+            int v = -1;
+            for (int u=0; u<nNodes; u++) {
+                if (set[u] && !settled[u] && dist[u] != INFINITY &&
+                        (v < 0 || dist[u] < dist[v]))
+                    v = u;
+            }
+            if (v < 0)
+                break;
+            settled[v] = true;
+            for (int e : inList[v]) {
+                int u = edgeFrom[e];
+                if (set[u] && dist[v] + weights[e] < dist[u])
+                    dist[u] = dist[v] + weights[e];
+            }
+        }
+        int head = 0, tail = 0;
+        queue[tail++] = s;
+        hops[s] = 0;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e : inList[v]) {
+                int u = edgeFrom[e];
+                if (set[u] && hops[u] == INFINITY) {
+                    hops[u] = hops[v] + 1;
+                    queue[tail++] = u;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(1);
+	if (args.length < 1) {
+	    System.out.println("Usage: CircuitGenerator <inputfile> [maxweight [maxlength]]");
+	    return;
+	}
+        AdjacencyList graph = Facebull.loadFile(args[0]);
+        CircuitGenerator cg = new CircuitGenerator(graph);
+        if (args.length > 1)
+            cg.setMaxWeight(Integer.parseInt(args[1]));
+        if (args.length > 2)
+            cg.setMaxLength(Integer.parseInt(args[2]));
+        long start = System.currentTimeMillis();
+        while (cg.hasMore()) {
+            cg.getNext();
+            if (Debug.getLevel() > 1) {
+                for (Edge e : cg.getCircuit())
+                    Debug.print(2, e.name + " ");
+                Debug.println(2, "");
+            }
+        }
+        double t = (System.currentTimeMillis() - start)/1000.0;
+        Debug.println("circuits = " + cg.getCount());
+        Debug.println("elapsed time = " + t);
+    }
+}
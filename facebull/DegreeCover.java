@@ -0,0 +1,367 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Minimum cost degree cover: the cheapest set of edges that gives every
+ * node at least one incoming and one outgoing edge.  Every strongly
+ * connected set of machines is such a cover, so its cost is a lower bound.
+ *
+ * Each node u has an out side (needs an outgoing edge) and an in side
+ * (needs an incoming edge), and an edge u->v covers the out side of u and
+ * the in side of v: a minimum edge cover of a bipartite graph.  An optimum
+ * cover is a matching plus, for every side left unmatched, its cheapest
+ * edge, so it is solved as an assignment problem of size 2n:
+ *
+ *                   in side of v        copy of out side
+ *   out side of u   w(u->v)             mu(u) on the diagonal
+ *   copy of in side mu(v) on diagonal   0
+ *
+ * where mu is the cheapest edge of a side.  The assignment is solved with
+ * the Hungarian algorithm.  Edges can be fixed in (free, and their sides
+ * covered) or out (unusable).  That only changes the rows of the two sides
+ * of the edge, and each changed row is re-solved with at most one O(n^2)
+ * augmentation against the current potentials, so a branch and bound can
+ * ask for the bound at every search node.
+ */
+public class DegreeCover {
+
+    static final int FREE = 0;
+    static final int IN = 1;
+    static final int OUT = 2;
+
+    int nNodes;
+    int size;                   // 2*nNodes, rows and columns are 1..size
+    int nEdges;
+    int[] edgeFrom;
+    int[] edgeTo;
+    int[] weights;
+    int[][] outEdges;
+    int[][] inEdges;
+    int[] state;
+    long fixedWeight;           // total weight of the edges fixed in
+    long big;                   // cost of an unusable cell
+
+    long[][] cost;
+    long[] u;                   // row potentials
+    long[] v;                   // column potentials
+    int[] p;                    // p[j] = row assigned to column j
+    int[] colOf;                // column assigned to row i
+    int[] way;
+    long[] minv;
+    boolean[] used;
+    long[] rowBuffer;
+
+    boolean[] dirty;
+    int[] dirtyRows;
+    int nDirty;
+    boolean solved;
+
+    public DegreeCover(AdjacencyList g) {
+        ArrayList<Edge> edges = g.getAllEdges();
+        int n = edges.size();
+        int[] from = new int[n];
+        int[] to = new int[n];
+        int[] w = new int[n];
+        for (int i=0; i<n; i++) {
+            Edge e = edges.get(i);
+            from[i] = g.getNodeIndex(e.from);
+            to[i] = g.getNodeIndex(e.to);
+            w[i] = e.weight;
+        }
+        init(g.getNodeList().size(), from, to, w);
+    }
+
+    /**
+     * @param nNodes    number of nodes, indexed 0..nNodes-1
+     * @param from      edge i goes from node from[i] ...
+     * @param to        ... to node to[i]
+     * @param weights   with weight weights[i]
+     */
+    public DegreeCover(int nNodes, int[] from, int[] to, int[] weights) {
+        init(nNodes, from, to, weights);
+    }
+
+    private void init(int n, int[] from, int[] to, int[] w) {
+        nNodes = n;
+        size = 2*n;
+        nEdges = from.length;
+        edgeFrom = from;
+        edgeTo = to;
+        weights = w;
+        big = 1;
+        int[] outDegree = new int[n];
+        int[] inDegree = new int[n];
+        for (int i=0; i<nEdges; i++) {
+            big += w[i];
+            outDegree[from[i]]++;
+            inDegree[to[i]]++;
+        }
+        outEdges = new int[n][];
+        inEdges = new int[n][];
+        for (int x=0; x<n; x++) {
+            outEdges[x] = new int[outDegree[x]];
+            inEdges[x] = new int[inDegree[x]];
+        }
+        Arrays.fill(outDegree, 0);
+        Arrays.fill(inDegree, 0);
+        for (int i=0; i<nEdges; i++) {
+            outEdges[from[i]][outDegree[from[i]]++] = i;
+            inEdges[to[i]][inDegree[to[i]]++] = i;
+        }
+
+        state = new int[nEdges];
+        cost = new long[size+1][size+1];
+        u = new long[size+1];
+        v = new long[size+1];
+        p = new int[size+1];
+        colOf = new int[size+1];
+        way = new int[size+1];
+        minv = new long[size+1];
+        used = new boolean[size+1];
+        rowBuffer = new long[size+1];
+        dirty = new boolean[size+1];
+        dirtyRows = new int[size];
+    }
+
+    /**
+     * @return  weight of the minimum degree cover that contains the edges
+     *          fixed in and none fixed out, or Long.MAX_VALUE if there is
+     *          none
+     */
+    public long getBound() {
+        if (!solved) {
+            solve();
+        } else {
+            for (int k=0; k<nDirty; k++) {
+                int i = dirtyRows[k];
+                dirty[i] = false;
+                buildRow(i, rowBuffer);
+                if (!Arrays.equals(rowBuffer, cost[i])) {
+                    System.arraycopy(rowBuffer, 0, cost[i], 0, size+1);
+                    resolveRow(i);
+                }
+            }
+            nDirty = 0;
+        }
+        long total = fixedWeight;
+        for (int j=1; j<=size; j++)
+            total += cost[p[j]][j];
+        return (total - fixedWeight >= big) ? Long.MAX_VALUE : total;
+    }
+
+    /**
+     * @return  the edge indexes in the current minimum degree cover
+     */
+    public int[] getCover() {
+        getBound();
+        boolean[] in = new boolean[nEdges];
+        for (int e=0; e<nEdges; e++)
+            in[e] = (state[e] == IN);
+        for (int x=0; x<nNodes; x++) {
+            int j = colOf[x+1];
+            if (j <= nNodes) {
+                int e = cheapest(outEdges[x], j-1, true);
+                if (e >= 0)
+                    in[e] = true;
+            } else if (!covered(outEdges[x])) {
+                in[cheapest(outEdges[x], -1, true)] = true;
+            }
+            if (p[x+1] == nNodes+x+1 && !covered(inEdges[x]))
+                in[cheapest(inEdges[x], -1, false)] = true;
+        }
+        int c = 0;
+        for (int e=0; e<nEdges; e++) {
+            if (in[e])
+                c++;
+        }
+        int[] cover = new int[c];
+        c = 0;
+        for (int e=0; e<nEdges; e++) {
+            if (in[e])
+                cover[c++] = e;
+        }
+        return cover;
+    }
+
+    public void fixIn(int e) {
+        setState(e, IN);
+    }
+
+    public void fixOut(int e) {
+        setState(e, OUT);
+    }
+
+    public void release(int e) {
+        setState(e, FREE);
+    }
+
+    private void setState(int e, int s) {
+        if (state[e] == IN)
+            fixedWeight -= weights[e];
+        state[e] = s;
+        if (s == IN)
+            fixedWeight += weights[e];
+        markDirty(edgeFrom[e]+1);
+        markDirty(nNodes+edgeTo[e]+1);
+    }
+
+    private void markDirty(int row) {
+        if (!dirty[row]) {
+            dirty[row] = true;
+            dirtyRows[nDirty++] = row;
+        }
+    }
+
+    /**
+     * solve the whole assignment from scratch, O(n^3)
+     */
+    private void solve() {
+        for (int i=1; i<=size; i++) {
+            buildRow(i, cost[i]);
+            dirty[i] = false;
+        }
+        nDirty = 0;
+        Arrays.fill(u, 0);
+        Arrays.fill(v, 0);
+        Arrays.fill(p, 0);
+        Arrays.fill(colOf, 0);
+        for (int i=1; i<=size; i++)
+            augment(i);
+        solved = true;
+    }
+
+    /**
+     * row i changed.  If its assigned column is still the cheapest in the
+     * row, adjusting u[i] keeps the assignment optimal, O(n).  Otherwise
+     * unassign it and assign it again, O(n^2).  Only row i changed, so the
+     * potentials of the other rows stay feasible.
+     */
+    private void resolveRow(int i) {
+        int j = colOf[i];
+        if (j != 0) {
+            long[] row = cost[i];
+            long rowMin = Long.MAX_VALUE;
+            for (int k=1; k<=size; k++)
+                rowMin = Math.min(rowMin, row[k] - v[k]);
+            if (row[j] - v[j] == rowMin) {
+                u[i] = rowMin;
+                return;
+            }
+            p[j] = 0;
+            colOf[i] = 0;
+        }
+        augment(i);
+    }
+
+    /**
+     * assign row i along a shortest augmenting path
+     */
+    private void augment(int i) {
+        p[0] = i;
+        int j0 = 0;
+        Arrays.fill(minv, Long.MAX_VALUE);
+        Arrays.fill(used, false);
+        do {
+            used[j0] = true;
+            int i0 = p[j0];
+            long delta = Long.MAX_VALUE;
+            int j1 = 0;
+            long[] row = cost[i0];
+            for (int j=1; j<=size; j++) {
+                if (!used[j]) {
+                    long cur = row[j] - u[i0] - v[j];
+                    if (cur < minv[j]) {
+                        minv[j] = cur;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+            }
+            for (int j=0; j<=size; j++) {
+                if (used[j]) {
+                    u[p[j]] += delta;
+                    v[j] -= delta;
+                } else {
+                    minv[j] -= delta;
+                }
+            }
+            j0 = j1;
+        } while (p[j0] != 0);
+        do {
+            int j1 = way[j0];
+            p[j0] = p[j1];
+            colOf[p[j0]] = j0;
+            j0 = j1;
+        } while (j0 != 0);
+    }
+
+    /**
+     * fill row i of the cost matrix from the current edge states
+     */
+    private void buildRow(int i, long[] row) {
+        Arrays.fill(row, big);
+        row[0] = 0;
+        if (i <= nNodes) {
+            // out side of node x
+            int x = i-1;
+            long mu = big;
+            for (int e : outEdges[x]) {
+                if (state[e] == OUT)
+                    continue;
+                long c = edgeCost(e);
+                int j = edgeTo[e]+1;
+                if (c < row[j])
+                    row[j] = c;
+                if (c < mu)
+                    mu = c;
+            }
+            row[nNodes+i] = mu;
+        } else {
+            // copy of the in side of node x
+            int x = i-nNodes-1;
+            long mu = big;
+            for (int e : inEdges[x]) {
+                if (state[e] == OUT)
+                    continue;
+                long c = edgeCost(e);
+                if (c < mu)
+                    mu = c;
+            }
+            row[x+1] = mu;
+            for (int j=nNodes+1; j<=size; j++)
+                row[j] = 0;
+        }
+    }
+
+    private boolean covered(int[] edges) {
+        for (int e : edges) {
+            if (state[e] == IN)
+                return true;
+        }
+        return false;
+    }
+
+    private long edgeCost(int e) {
+        return (state[e] == IN) ? 0 : weights[e];
+    }
+
+    /**
+     * @return  cheapest usable edge in edges, going to node target if
+     *          target >= 0, or -1 if there is none
+     */
+    private int cheapest(int[] edges, int target, boolean out) {
+        int best = -1;
+        for (int e : edges) {
+            if (state[e] == OUT)
+                continue;
+            if (target >= 0 && (out ? edgeTo[e] : edgeFrom[e]) != target)
+                continue;
+            if (best < 0 || edgeCost(e) < edgeCost(best))
+                best = e;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,380 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * All pairs shortest paths by one Dijkstra per source, for sparse graphs:
+ * O(n e log n) time against Floyd-Warshall's O(n^3).
+ *
+ * Rows are computed on demand, the first time a source is asked about,
+ * so a solver only pays for the sources it uses; getDistances() or
+ * computeAll() does the rest, split across setThreads() workers.  A row
+ * is published whole through final fields and never changed after, so
+ * threads can ask for rows at the same time: at worst two compute the
+ * same one.  An edge change renumbers the arcs, so it must not overlap
+ * with lookups; the rows it keeps are copied, not rewritten.
+ *
+ * The arcs are the graph's GraphSnapshot, flat arrays by tail; the heap is
+ * an indexed binary heap of node indexes keyed by distance, one per
+ * thread, so a search allocates only its row.  A row keeps the distance
+ * and the arc into each node; paths are read backwards from it.  The arc
+ * into the source itself closes its shortest circuit.
+ */
+public class Dijkstra implements DistanceOracle {
+    AdjacencyList graph;
+    int nNodes;
+    int[] first;                // arcs out of u: first[u] .. first[u+1]-1
+    int[] arcFrom;
+    int[] arcTo;
+    int[] arcWeight;
+    Edge[] arcEdge;
+    int[] inFirst;              // arcs into v, as arc numbers
+    int[] inArcs;
+    Row[] rows;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int[] matrix;
+    ThreadLocal<Heap> heaps = new ThreadLocal<Heap>() {
+        protected Heap initialValue() {
+            return new Heap(nNodes);
+        }
+    };
+
+    static class Row {
+        final int[] dist;
+        final int[] arc;        // arc into each node, -1 if unreached
+
+        Row(int[] dist, int[] arc) {
+            this.dist = dist;
+            this.arc = arc;
+        }
+    }
+
+    public Dijkstra(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        rows = new Row[nNodes];
+        build();
+    }
+
+    /**
+     * the arcs, by tail, and the arc numbers into each node, from the
+     * graph's snapshot
+     */
+    private void build() {
+        GraphSnapshot g = graph.getSnapshot();
+        first = g.outStart;
+        arcFrom = g.outSource;
+        arcTo = g.outTarget;
+        arcWeight = g.outWeight;
+        arcEdge = g.edges;
+        inFirst = g.inStart;
+        inArcs = g.inArc;
+    }
+
+    /**
+     * Set the number of worker threads for computeAll(), by default one
+     * per processor.
+     */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+    }
+
+    public int getShortestDistance(int i, int j) {
+        return row(i).dist[j];
+    }
+
+    public int getShortestPath(int i, int j, int[] path) {
+        Row r = row(i);
+        if (r.dist[j] == INFINITY)
+            return 0;
+        // backwards from the end of path, then moved to the front
+        int k = path.length;
+        int v = j;
+        path[--k] = v;
+        do {
+            v = arcFrom[r.arc[v]];
+            path[--k] = v;
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public int getShortestPathEdges(int i, int j, Edge[] path) {
+        Row r = row(i);
+        if (r.dist[j] == INFINITY)
+            return 0;
+        int k = path.length;
+        int v = j;
+        do {
+            int a = r.arc[v];
+            path[--k] = arcEdge[a];
+            v = arcFrom[a];
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public int getShortestPathArcs(int i, int j, int[] path) {
+        Row r = row(i);
+        if (r.dist[j] == INFINITY)
+            return 0;
+        int k = path.length;
+        int v = j;
+        do {
+            int a = r.arc[v];
+            path[--k] = a;
+            v = arcFrom[a];
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public Edge[] getArcs() {
+        return arcEdge;
+    }
+
+    public synchronized int[] getDistances() {
+        if (matrix == null) {
+            computeAll();
+            int[] m = new int[nNodes * nNodes];
+            for (int i=0; i<nNodes; i++)
+                System.arraycopy(rows[i].dist, 0, m, i*nNodes, nNodes);
+            matrix = m;
+        }
+        return matrix;
+    }
+
+    /**
+     * The arcs are renumbered, and a row is dropped, to be searched again
+     * when asked for, if the change can alter it: a new or cheaper edge
+     * u->v that beats the row's distance to v, or a dearer or removed one
+     * that is the row's arc into v.  The other rows are replaced by rows
+     * with the same distances and the arc numbers mapped to the new ones.
+     */
+    public void edgeChanged(int u, int v, int oldWeight, int weight) {
+        matrix = null;
+        int[] oldFrom = arcFrom;
+        int[] oldTo = arcTo;
+        build();
+        int[] moved = new int[oldFrom.length];
+        for (int a=0; a<oldFrom.length; a++)
+            moved[a] = findArc(oldFrom[a], oldTo[a]);
+        for (int s=0; s<nNodes; s++) {
+            Row r = rows[s];
+            if (r == null)
+                continue;
+            boolean stale;
+            if (weight < oldWeight) {
+                long du = (u == s) ? 0 : r.dist[u];
+                stale = du != INFINITY && du + weight < r.dist[v];
+            } else {
+                stale = r.arc[v] >= 0 && oldFrom[r.arc[v]] == u;
+            }
+            if (stale) {
+                rows[s] = null;
+                continue;
+            }
+            // a new row, not this one rewritten: another thread may be
+            // reading it
+            int[] arc = new int[nNodes];
+            for (int x=0; x<nNodes; x++)
+                arc[x] = (r.arc[x] >= 0) ? moved[r.arc[x]] : -1;
+            rows[s] = new Row(r.dist, arc);
+        }
+    }
+
+    /**
+     * @return  the number of the arc from u to v, or -1
+     */
+    private int findArc(int u, int v) {
+        for (int a=first[u]; a<first[u+1]; a++) {
+            if (arcTo[a] == v)
+                return a;
+        }
+        return -1;
+    }
+
+    /**
+     * compute every row not done yet, in parallel
+     */
+    public void computeAll() {
+        if (threads == 1 || nNodes < 2) {
+            for (int s=0; s<nNodes; s++)
+                row(s);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayList<ForkJoinTask<Void>> tasks =
+            new ArrayList<ForkJoinTask<Void>>();
+        for (int t=0; t<threads; t++) {
+            final int start = t;
+            tasks.add(pool.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int s=start; s<nNodes; s+=threads)
+                        row(s);
+                    return null;
+                }
+            }));
+        }
+        for (ForkJoinTask<Void> task : tasks)
+            task.join();
+        pool.shutdown();
+    }
+
+    private Row row(int s) {
+        Row r = rows[s];
+        if (r == null) {
+            r = search(s, heaps.get());
+            rows[s] = r;
+        }
+        return r;
+    }
+
+    Row search(int s, Heap heap) {
+        int[] dist = new int[nNodes];
+        int[] arc = new int[nNodes];
+        Arrays.fill(dist, INFINITY);
+        Arrays.fill(arc, -1);
+        dist[s] = 0;
+        heap.push(s, 0);
+        while (heap.size > 0) {
+            int u = heap.pop();
+            int du = dist[u];
+            for (int a=first[u]; a<first[u+1]; a++) {
+                int v = arcTo[a];
+                // in long: a sum past INFINITY must not wrap negative
+                long d = (long)du + arcWeight[a];
+                if (d < dist[v]) {
+                    dist[v] = (int)d;
+                    arc[v] = a;
+                    heap.push(v, (int)d);
+                }
+            }
+        }
+
+        // the way back to s
+        long circuit = INFINITY;
+        for (int k=inFirst[s]; k<inFirst[s+1]; k++) {
+            int a = inArcs[k];
+            int u = arcFrom[a];
+            long d = (long)dist[u] + arcWeight[a];
+            if (dist[u] != INFINITY && d < circuit) {
+                circuit = d;
+                arc[s] = a;
+            }
+        }
+        dist[s] = (int)circuit;
+        return new Row(dist, arc);
+    }
+
+    /**
+     * Binary heap of node indexes by key, with each node's place in it, so
+     * push() of a node already there lowers its key.
+     */
+    static class Heap {
+        int[] node;
+        int[] key;
+        int[] place;            // -1 when not in the heap
+        int size;
+
+        Heap(int n) {
+            node = new int[n];
+            key = new int[n];
+            place = new int[n];
+            Arrays.fill(place, -1);
+        }
+
+        void push(int v, int k) {
+            int i = place[v];
+            if (i < 0)
+                i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (key[parent] <= k)
+                    break;
+                node[i] = node[parent];
+                key[i] = key[parent];
+                place[node[i]] = i;
+                i = parent;
+            }
+            node[i] = v;
+            key[i] = k;
+            place[v] = i;
+        }
+
+        int pop() {
+            int top = node[0];
+            place[top] = -1;
+            size--;
+            if (size > 0) {
+                int v = node[size];
+                int k = key[size];
+                int i = 0;
+                while (true) {
+                    int child = 2*i + 1;
+                    if (child >= size)
+                        break;
+                    if (child + 1 < size && key[child + 1] < key[child])
+                        child++;
+                    if (key[child] >= k)
+                        break;
+                    node[i] = node[child];
+                    key[i] = key[child];
+                    place[node[i]] = i;
+                    i = child;
+                }
+                node[i] = v;
+                key[i] = k;
+                place[v] = i;
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Compare with FloydWarshall on random graphs: seconds for all rows,
+     * and for the whole matrix by FloydWarshall.
+     */
+    /**
+     * Time Dijkstra against FloydWarshall on FloydWarshall.randomGraph()
+     * of each size, or on each input file, and check they agree.
+     */
+    public static void main(String[] args) {
+        int threads = 1;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        String[] graphs = { "100", "200", "500", "1000", "2000" };
+        if (args.length > first)
+            graphs = Arrays.copyOfRange(args, first, args.length);
+        System.out.println("n\tDijkstra\tFloydWarshall");
+        for (String name : graphs) {
+            AdjacencyList graph;
+            if (name.matches("[0-9]+")) {
+                int n = Integer.parseInt(name);
+                graph = FloydWarshall.randomGraph(n, n);
+            } else {
+                graph = Facebull.loadFile(name);
+            }
+            long start = System.nanoTime();
+            Dijkstra dijkstra = new Dijkstra(graph);
+            dijkstra.setThreads(threads);
+            int[] d = dijkstra.getDistances();
+            double t1 = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            FloydWarshall fw = new FloydWarshall(graph);
+            fw.setThreads(threads);
+            int[] f = fw.getDistances();
+            double t2 = (System.nanoTime() - start) / 1e9;
+            System.out.println(name + "\t" + t1 + "\t" + t2 +
+                    (Arrays.equals(d, f) ? "" : " MISMATCH"));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * All pairs shortest paths over node indexes, whichever way they are
+ * computed.  FloydWarshall does the whole matrix in O(n^3); Dijkstra runs
+ * one search per source, only for the sources asked about, which is
+ * cheaper on sparse graphs.  forGraph() picks one by density.
+ *
+ * From i to i is the shortest circuit through i.
+ */
+public interface DistanceOracle {
+    int INFINITY = Integer.MAX_VALUE;
+
+    // Dijkstra when e log n, its cost per source, is under n^2 / DENSITY.
+    // Measured on random graphs, the two break even near 1 with the
+    // scalar inner loop, so this leaves room for the vector one.
+    int DENSITY = 2;
+
+    /**
+     * @return  the weight of the shortest path from i to j, or INFINITY
+     */
+    int getShortestDistance(int i, int j);
+
+    /**
+     * Store the node indexes of the shortest path from i to j, both ends
+     * included, in path, which needs room for n+1.
+     *
+     * @return  the number of nodes, 0 if there is no path
+     */
+    int getShortestPath(int i, int j, int[] path);
+
+    /**
+     * Store the edges of the shortest path from i to j in path, which
+     * needs room for n.
+     *
+     * @return  the number of edges, 0 if there is no path
+     */
+    int getShortestPathEdges(int i, int j, Edge[] path);
+
+    /**
+     * Store the numbers of the edges of the shortest path from i to j, as
+     * indexes into getArcs(), in path, which needs room for n.
+     *
+     * @return  the number of edges, 0 if there is no path
+     */
+    int getShortestPathArcs(int i, int j, int[] path);
+
+    /**
+     * @return  the edges of the graph, numbered for getShortestPathArcs().
+     *          Shared: don't change it.
+     */
+    Edge[] getArcs();
+
+    /**
+     * @return  all the distances by rows, INFINITY where there is no path,
+     *          or null if the oracle doesn't keep them on the heap, as a
+     *          mapped matrix doesn't: read getShortestDistance() then.
+     *          Shared: don't change it.
+     */
+    int[] getDistances();
+
+    /**
+     * Catch up with a change already made to the graph: the edge from u
+     * to v weighed oldWeight, INFINITY if it is new, and now weighs
+     * weight, INFINITY if it was removed.  Edge numbers from getArcs()
+     * change.
+     */
+    void edgeChanged(int u, int v, int oldWeight, int weight);
+
+    /**
+     * @return  Dijkstra for sparse graphs, FloydWarshall otherwise
+     */
+    static DistanceOracle forGraph(AdjacencyList graph) {
+        long n = graph.getNodeList().size();
+        long e = graph.getAllEdges().size();
+        int log = 64 - Long.numberOfLeadingZeros(n);
+        if (e * log * DENSITY < n * n) {
+            Debug.println(2, "distances: Dijkstra, " + n + " nodes, " + e +
+                    " edges");
+            return new Dijkstra(graph);
+        }
+        Debug.println(2, "distances: FloydWarshall, " + n + " nodes, " + e +
+                " edges");
+        return new FloydWarshall(graph);
+    }
+}
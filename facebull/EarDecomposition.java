@@ -0,0 +1,452 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact dynamic programming over node subsets, using ear decompositions.
+ *
+ * A minimal strongly connected set of machines has an ear decomposition
+ * that starts at node 0 and where every ear is a path u -> x1 ... xk -> v
+ * through k >= 1 new nodes, u and v already connected (u == v allowed).
+ * The ears share no edges, so with
+ *
+ *   dp[S] = cheapest strongly connected edge set on node set S
+ *
+ * dp[S + X] = min over S of dp[S] + (cheapest ear from S through all of X).
+ * For each reachable S the ears are grown with a Hamiltonian path DP over
+ * the subsets X of the remaining nodes, so the work is about 3^n n^2
+ * before pruning.  States whose cost plus the cheapest incoming (or
+ * outgoing) edges of the nodes still missing exceed the initial weight are
+ * dropped.
+ *
+ * dp[S] only depends on smaller sets, so the sets of each size are solved
+ * in parallel.  Each worker relaxes its own copy of the tables, and the
+ * copies are merged before the next size.
+ */
+public class EarDecomposition {
+    final int INFINITY = Integer.MAX_VALUE;
+
+    // tables are indexed by node masks, and the ear tables by n-1 bits
+    static final int MAX_NODES = 22;
+
+    AdjacencyList graph;
+    int nNodes;
+    int fullMask;
+    int[][] weight;             // cheapest edge u->v, or INFINITY
+    Edge[][] edge;
+
+    // sum of the cheapest incoming (outgoing) edge weights over a mask
+    int[] lbIn;
+    int[] lbOut;
+    int[] minOut;
+
+    int[] dp;
+    int[] parent;               // dp[S] extends dp[parent[S]] by one ear
+    int[] order;                // masks containing node 0, by size
+    int[] layerStart;
+
+    int minWeight;
+    int threads = 1;
+    ArrayList<Worker> workers;
+    ThreadLocal<Worker> local;
+    long stateCount;
+
+    public EarDecomposition(AdjacencyList g) {
+        graph = g;
+        minWeight = INFINITY;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        // ties are broken by name, so the solution is reproducible
+        Collections.sort(allEdges, new EdgeWeightComparator());
+        weight = new int[nNodes][nNodes];
+        edge = new Edge[nNodes][nNodes];
+        for (int u=0; u<nNodes; u++)
+            Arrays.fill(weight[u], INFINITY);
+        for (Edge e : allEdges) {
+            int u = graph.getNodeIndex(e.from);
+            int v = graph.getNodeIndex(e.to);
+            if (u != v && edge[u][v] == null) {
+                weight[u][v] = e.weight;
+                edge[u][v] = e;
+            }
+        }
+    }
+
+    /**
+     * Set the number of worker threads.  1 means the search runs on the
+     * calling thread.
+     */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+    }
+
+    public void solve(int weight) {
+        minWeight = weight;
+        solve();
+    }
+
+    public void solve() {
+        Facebull.printSolution(getSolution());
+    }
+
+    public ArrayList<Edge> getSolution(int weight) {
+        minWeight = weight;
+        return getSolution();
+    }
+
+    /**
+     * @return  the cheapest strongly connected edge set, or null if there
+     *          is none weighing at most the initial weight
+     */
+    public ArrayList<Edge> getSolution() {
+        if (nNodes > MAX_NODES) {
+            System.out.println("EarDecomposition: too many nodes: " + nNodes);
+            return null;
+        }
+        if (nNodes <= 1)
+            return new ArrayList<Edge>();
+        long start = System.currentTimeMillis();
+        stateCount = 0;
+        initTables();
+
+        workers = new ArrayList<Worker>();
+        local = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                Worker w = new Worker();
+                synchronized (workers) {
+                    workers.add(w);
+                }
+                return w;
+            }
+        };
+        ForkJoinPool pool = null;
+        if (threads > 1)
+            pool = new ForkJoinPool(threads);
+        for (int k=1; k<nNodes; k++) {
+            if (pool == null) {
+                local.get().extendAll(layerStart[k], layerStart[k+1]);
+            } else {
+                pool.invoke(new LayerTask(layerStart[k], layerStart[k+1]));
+            }
+            merge();
+        }
+        if (pool != null)
+            pool.shutdown();
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (Debug.isOn()) {
+            double t = elapsed/1000.0;
+            Debug.println("elapsed time = " + t);
+            Debug.println("ear states = " + stateCount);
+            Debug.println("table memory = " + (tableBytes() >> 20) + " MB");
+        }
+        if (dp[fullMask] == INFINITY || dp[fullMask] > minWeight)
+            return null;
+        return rebuild();
+    }
+
+    private void initTables() {
+        int size = 1 << nNodes;
+        fullMask = size - 1;
+        int[] minIn = new int[nNodes];
+        minOut = new int[nNodes];
+        Arrays.fill(minIn, INFINITY);
+        Arrays.fill(minOut, INFINITY);
+        for (int u=0; u<nNodes; u++) {
+            for (int v=0; v<nNodes; v++) {
+                minOut[u] = Math.min(minOut[u], weight[u][v]);
+                minIn[v] = Math.min(minIn[v], weight[u][v]);
+            }
+        }
+        lbIn = new int[size];
+        lbOut = new int[size];
+        for (int m=1; m<size; m++) {
+            int low = Integer.numberOfTrailingZeros(m);
+            lbIn[m] = saturate((long)lbIn[m & (m-1)] + minIn[low]);
+            lbOut[m] = saturate((long)lbOut[m & (m-1)] + minOut[low]);
+        }
+
+        dp = new int[size];
+        parent = new int[size];
+        Arrays.fill(dp, INFINITY);
+        dp[1] = 0;
+
+        // counting sort of the odd masks by size
+        layerStart = new int[nNodes+2];
+        for (int m=1; m<size; m+=2)
+            layerStart[Integer.bitCount(m)+1]++;
+        for (int k=1; k<=nNodes+1; k++)
+            layerStart[k] += layerStart[k-1];
+        order = new int[size >> 1];
+        int[] next = Arrays.copyOf(layerStart, nNodes+1);
+        for (int m=1; m<size; m+=2)
+            order[next[Integer.bitCount(m)]++] = m;
+    }
+
+    private int saturate(long w) {
+        return (int)Math.min(w, INFINITY);
+    }
+
+    /**
+     * fold the workers' tables into dp
+     */
+    private void merge() {
+        for (Worker w : workers) {
+            for (int m=1; m<=fullMask; m+=2) {
+                if (w.best[m] < dp[m]) {
+                    dp[m] = w.best[m];
+                    parent[m] = w.from[m];
+                }
+            }
+        }
+        minWeight = Math.min(minWeight, dp[fullMask]);
+    }
+
+    private long tableBytes() {
+        long size = 1L << nNodes;
+        long shared = 4 * 6 * size;             // lbIn lbOut dp parent, order
+        long perWorker = 4 * (2 * size + (size >> 1) * nNodes);
+        return shared + workers.size() * perWorker;
+    }
+
+    /**
+     * follow the parent links back to node 0, finding each ear again
+     */
+    private ArrayList<Edge> rebuild() {
+        ArrayList<Edge> solution = new ArrayList<Edge>();
+        for (int t=fullMask; t != 1; t=parent[t])
+            findEar(parent[t], t & ~parent[t], dp[t] - dp[parent[t]],
+                solution);
+        return solution;
+    }
+
+    /**
+     * add to solution the edges of an ear from s through all of x that
+     * costs at most cost
+     */
+    private void findEar(int s, int x, int cost, ArrayList<Edge> solution) {
+        int[] nodes = new int[Integer.bitCount(x)];
+        int m = 0;
+        for (int v=0; v<nNodes; v++) {
+            if ((x & (1 << v)) != 0)
+                nodes[m++] = v;
+        }
+        int[] path = new int[(1 << m) * m];
+        int[] prev = new int[(1 << m) * m];
+        Arrays.fill(path, INFINITY);
+        for (int a=0; a<m; a++) {
+            int in = cheapest(s, nodes[a], false);
+            if (in >= 0)
+                path[(1 << a)*m + a] = weight[in][nodes[a]];
+        }
+        for (int i=1; i < (1 << m); i++) {
+            for (int b=0; b<m; b++) {
+                int w = path[i*m + b];
+                if (w == INFINITY)
+                    continue;
+                for (int c=0; c<m; c++) {
+                    int wc = weight[nodes[b]][nodes[c]];
+                    if ((i & (1 << c)) != 0 || wc == INFINITY)
+                        continue;
+                    int j = (i | (1 << c))*m + c;
+                    if (w + wc < path[j]) {
+                        path[j] = w + wc;
+                        prev[j] = b;
+                    }
+                }
+            }
+        }
+        int all = (1 << m) - 1;
+        for (int b=0; b<m; b++) {
+            int out = cheapest(s, nodes[b], true);
+            if (path[all*m + b] == INFINITY || out < 0 ||
+                    path[all*m + b] + weight[nodes[b]][out] > cost)
+                continue;
+            solution.add(edge[nodes[b]][out]);
+            int i = all;
+            while (Integer.bitCount(i) > 1) {
+                int a = prev[i*m + b];
+                solution.add(edge[nodes[a]][nodes[b]]);
+                i &= ~(1 << b);
+                b = a;
+            }
+            solution.add(edge[cheapest(s, nodes[b], false)][nodes[b]]);
+            return;
+        }
+        throw new IllegalStateException("ear not found");
+    }
+
+    /**
+     * @return  the node in s with the cheapest edge to v (out false) or
+     *          from v (out true), or -1 if there is none
+     */
+    private int cheapest(int s, int v, boolean out) {
+        int best = -1;
+        int bestWeight = INFINITY;
+        for (int u=0; u<nNodes; u++) {
+            if ((s & (1 << u)) == 0)
+                continue;
+            int w = out ? weight[v][u] : weight[u][v];
+            if (w < bestWeight) {
+                best = u;
+                bestWeight = w;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Solves a range of one layer of order[], splitting it in halves.
+     */
+    class LayerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        static final int GRAIN = 16;
+        int lo, hi;
+
+        LayerTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                local.get().extendAll(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new LayerTask(lo, mid), new LayerTask(mid, hi));
+        }
+    }
+
+    /**
+     * Per-thread tables: relaxed copies of dp and parent, and the ear
+     * table of the set being extended.
+     */
+    class Worker {
+        int[] best = new int[fullMask+1];
+        int[] from = new int[fullMask+1];
+        int[] path;                 // path[i*m + b]: ear through x(i) to b
+        int[] xs;                   // node mask of ear index i
+        int[] nodes = new int[nNodes];
+        int[] enter = new int[nNodes];
+        int[] leave = new int[nNodes];
+        long states;
+
+        Worker() {
+            Arrays.fill(best, INFINITY);
+            int m = nNodes - 1;
+            path = new int[(1 << m) * m];
+            xs = new int[1 << m];
+        }
+
+        void extendAll(int lo, int hi) {
+            for (int k=lo; k<hi; k++)
+                extend(order[k]);
+            synchronized (EarDecomposition.this) {
+                stateCount += states;
+            }
+            states = 0;
+        }
+
+        /**
+         * relax every set reachable from s by one ear
+         */
+        void extend(int s) {
+            int base = dp[s];
+            int comp = fullMask & ~s;
+            if (base == INFINITY ||
+                    (long)base + Math.max(lbIn[comp], lbOut[comp]) > minWeight)
+                return;
+            int m = 0;
+            for (int v=0; v<nNodes; v++) {
+                if ((comp & (1 << v)) != 0)
+                    nodes[m++] = v;
+            }
+            for (int a=0; a<m; a++) {
+                int v = nodes[a];
+                enter[a] = INFINITY;
+                leave[a] = INFINITY;
+                for (int u=0; u<nNodes; u++) {
+                    if ((s & (1 << u)) != 0) {
+                        enter[a] = Math.min(enter[a], weight[u][v]);
+                        leave[a] = Math.min(leave[a], weight[v][u]);
+                    }
+                }
+            }
+
+            int size = 1 << m;
+            Arrays.fill(path, 0, size*m, INFINITY);
+            xs[0] = 0;
+            for (int a=0; a<m; a++) {
+                if (enter[a] != INFINITY)
+                    path[(1 << a)*m + a] = base + enter[a];
+            }
+            for (int i=1; i<size; i++) {
+                int low = Integer.numberOfTrailingZeros(i);
+                int x = xs[i & (i-1)] | (1 << nodes[low]);
+                xs[i] = x;
+                int rest = comp & ~x;
+                int restIn = lbIn[rest];
+                int restOut = lbOut[rest];
+                int t = s | x;
+                int limit = Math.min(minWeight, best[fullMask]);
+                for (int b=0; b<m; b++) {
+                    int w = path[i*m + b];
+                    if (w == INFINITY)
+                        continue;
+                    states++;
+                    // b and the nodes left still need outgoing edges
+                    if ((long)w + Math.max(restIn,
+                            (long)restOut + minOut[nodes[b]]) > limit)
+                        continue;
+                    int[] wb = weight[nodes[b]];
+                    if (leave[b] != INFINITY && w + leave[b] < best[t]) {
+                        best[t] = w + leave[b];
+                        from[t] = s;
+                    }
+                    for (int c=0; c<m; c++) {
+                        int wc = wb[nodes[c]];
+                        if ((i & (1 << c)) != 0 || wc == INFINITY)
+                            continue;
+                        int j = (i | (1 << c))*m + c;
+                        if (w + wc < path[j])
+                            path[j] = w + wc;
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+        int threads = 1;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+	if (args.length <= first) {
+	    System.out.println("Usage: EarDecomposition [-t threads] <inputfile> ...");
+	    return;
+	}
+        for (int i=first; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            Reduction reduction = new Reduction(Facebull.loadFile(file));
+            AdjacencyList graph = reduction.getGraph();
+            if (reduction.isSolved()) {
+                Facebull.printSolution(reduction.getFixedEdges());
+                continue;
+            }
+            ArrayList<Edge> edges = EdgeSetSearch.getSeed(graph);
+            int w = (edges == null) ? Integer.MAX_VALUE :
+                Edge.getTotalWeight(edges);
+
+            EarDecomposition solver = new EarDecomposition(graph);
+            solver.setThreads(threads);
+            Facebull.printSolution(reduction.expand(solver.getSolution(w)));
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Greedy ear augmentation, in the style of Khuller, Raghavachari and
+ * Young: grow a strongly connected set of machines from a root by
+ * repeatedly adding the ear with the lowest cost per new node.
+ *
+ * A path from the chosen nodes out to an outside node, followed by a
+ * path from there back to them, is an ear: everything on it is reachable
+ * from the chosen nodes and reaches them.  The paths back are one
+ * Dijkstra into the chosen nodes, and the shortest paths out another,
+ * both carried on from step to step, as the chosen nodes only grow.  The
+ * ears tried are each edge x->y with the path out to x and back from y,
+ * and, since more nodes for the money can beat a shorter path, the
+ * cheapest walks out of 2 to LAYERS (or log n) edges by a layered
+ * Bellman-Ford, with the path back.  So a step is O(LAYERS * e).
+ *
+ * An ear costs the weight of its new edges divided by the number of
+ * nodes it adds.  The path lengths give an estimate, which counts twice
+ * what the two halves share; the SHORTLIST best by estimate are then
+ * walked and counted exactly.  The result is pruned of redundant edges.
+ *
+ * getSolution() grows from ROOTS roots and keeps the cheapest, next to
+ * the Edmonds in/out arborescence union, which is at most twice the
+ * optimum, so it keeps that guarantee.
+ */
+public class EarHeuristic {
+    static final int ROOTS = 4;
+    static final int SHORTLIST = 8;
+    static final int LAYERS = 8;        // at least, for the walks out
+
+    AdjacencyList graph;
+    int nNodes;
+    Edge[] edges;
+    int[] edgeFrom;
+    int[] edgeTo;
+    int[] edgeWeight;
+    int[][] outList;
+    int[][] inList;
+
+    // state of one run: chosen nodes and edges, and the shortest paths
+    // from and to the chosen nodes, with the new nodes on each
+    boolean[] inSet;
+    boolean[] chosen;
+    int[] distIn;
+    int[] predIn;               // edge into x on the path from the set
+    int[] depthIn;
+    int[] distOut;
+    int[] predOut;              // edge out of x on the path to the set
+    int[] depthOut;
+    Dijkstra.Heap heapIn;
+    Dijkstra.Heap heapOut;
+    int[] added;                // chosen nodes, in the order chosen
+    int covered;
+    int layers;                 // longest walk out, in edges
+    int[][] layerDist;
+    int[][] layerPred;
+
+    // the best few ears of a step, by estimate, and the exact count for
+    // one of them
+    int listSize;
+    int[] listId = new int[SHORTLIST];
+    long[] listCost = new long[SHORTLIST];
+    long[] listNodes = new long[SHORTLIST];
+    int[] stamp;
+    int[] edgeStamp;
+    int clock;
+    long earCost;
+    long earNodes;
+
+    public EarHeuristic(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        int nEdges = allEdges.size();
+        edges = allEdges.toArray(new Edge[nEdges]);
+        edgeFrom = new int[nEdges];
+        edgeTo = new int[nEdges];
+        edgeWeight = new int[nEdges];
+        int[] outDegree = new int[nNodes];
+        int[] inDegree = new int[nNodes];
+        for (int i=0; i<nEdges; i++) {
+            edgeFrom[i] = graph.getNodeIndex(edges[i].from);
+            edgeTo[i] = graph.getNodeIndex(edges[i].to);
+            edgeWeight[i] = edges[i].weight;
+            outDegree[edgeFrom[i]]++;
+            inDegree[edgeTo[i]]++;
+        }
+        outList = new int[nNodes][];
+        inList = new int[nNodes][];
+        for (int v=0; v<nNodes; v++) {
+            outList[v] = new int[outDegree[v]];
+            inList[v] = new int[inDegree[v]];
+        }
+        Arrays.fill(outDegree, 0);
+        Arrays.fill(inDegree, 0);
+        for (int i=0; i<nEdges; i++) {
+            outList[edgeFrom[i]][outDegree[edgeFrom[i]]++] = i;
+            inList[edgeTo[i]][inDegree[edgeTo[i]]++] = i;
+        }
+
+        inSet = new boolean[nNodes];
+        chosen = new boolean[nEdges];
+        distIn = new int[nNodes];
+        predIn = new int[nNodes];
+        depthIn = new int[nNodes];
+        distOut = new int[nNodes];
+        predOut = new int[nNodes];
+        depthOut = new int[nNodes];
+        layers = Math.max(LAYERS, 32 - Integer.numberOfLeadingZeros(nNodes));
+        layerDist = new int[layers + 1][nNodes];
+        layerPred = new int[layers + 1][nNodes];
+        heapIn = new Dijkstra.Heap(nNodes);
+        heapOut = new Dijkstra.Heap(nNodes);
+        added = new int[nNodes];
+        stamp = new int[nNodes];
+        edgeStamp = new int[nEdges];
+    }
+
+    /**
+     * @return  the ears grown from the node with index root, less
+     *          redundant edges, or null if the graph is not strongly
+     *          connected
+     */
+    public ArrayList<Edge> getSolution(int root) {
+        Arrays.fill(inSet, false);
+        Arrays.fill(chosen, false);
+        Arrays.fill(distIn, DistanceOracle.INFINITY);
+        Arrays.fill(distOut, DistanceOracle.INFINITY);
+        covered = 0;
+        added[covered++] = root;
+        int done = 0;
+        while (true) {
+            for (; done<covered; done++) {
+                inSet[added[done]] = true;
+                search(added[done], true);
+                search(added[done], false);
+            }
+            settle(true);
+            settle(false);
+            if (covered == nNodes)
+                break;
+
+            // estimates, from the path lengths: a node or edge on both
+            // paths of an ear is counted twice
+            listSize = 0;
+            for (int e=0; e<edges.length; e++) {
+                int x = edgeFrom[e], y = edgeTo[e];
+                if ((inSet[x] && inSet[y]) ||
+                        distIn[x] == DistanceOracle.INFINITY ||
+                        distOut[y] == DistanceOracle.INFINITY)
+                    continue;
+                offer(e, (long)distIn[x] + edgeWeight[e] + distOut[y],
+                        depthIn[x] + depthOut[y]);
+            }
+            if (listSize == 0)
+                return null;
+            int maxLayer = Math.min(layers, nNodes - covered);
+            layeredPaths(maxLayer);
+            for (int j=2; j<=maxLayer; j++) {
+                for (int x=0; x<nNodes; x++) {
+                    if (layerDist[j][x] == DistanceOracle.INFINITY ||
+                            distOut[x] == DistanceOracle.INFINITY)
+                        continue;
+                    offer(-(j * nNodes + x) - 1,
+                            (long)layerDist[j][x] + distOut[x],
+                            j + depthOut[x] - 1);
+                }
+            }
+
+            // the exact cost per new node of the best few
+            int best = -1;
+            long bestCost = 0;
+            long bestNodes = 1;
+            for (int k=0; k<listSize; k++) {
+                walk(listId[k], false);
+                if (best < 0 || earCost * bestNodes < bestCost * earNodes) {
+                    best = k;
+                    bestCost = earCost;
+                    bestNodes = earNodes;
+                }
+            }
+            walk(listId[best], true);
+        }
+        ArrayList<Edge> solution = new ArrayList<Edge>();
+        for (int e=0; e<edges.length; e++) {
+            if (chosen[e])
+                solution.add(edges[e]);
+        }
+        Edmonds.removeRedundant(graph, solution);
+        return solution;
+    }
+
+    /**
+     * keep the ear in the shortlist if it is among the SHORTLIST best by
+     * estimated cost per node.  An ear is an edge e >= 0, with the paths
+     * from the chosen nodes to its tail and from its head back, or
+     * -(j*n + x) - 1, the cheapest j edge walk to x and the path back.
+     */
+    private void offer(int id, long cost, long nodes) {
+        int k = listSize;
+        if (k == SHORTLIST) {
+            if (cost * listNodes[k-1] >= listCost[k-1] * nodes)
+                return;
+            k--;
+        } else {
+            listSize++;
+        }
+        for (; k > 0 && cost * listNodes[k-1] < listCost[k-1] * nodes; k--) {
+            listId[k] = listId[k-1];
+            listCost[k] = listCost[k-1];
+            listNodes[k] = listNodes[k-1];
+        }
+        listId[k] = id;
+        listCost[k] = cost;
+        listNodes[k] = nodes;
+    }
+
+    /**
+     * Go over the edges of ear id (see offer()), each new edge and node
+     * once: add them if apply, else total them in earCost and earNodes.
+     */
+    private void walk(int id, boolean apply) {
+        clock++;
+        earCost = 0;
+        earNodes = 0;
+        int x;
+        if (id >= 0) {
+            step(id, apply);
+            for (int v=edgeFrom[id]; !inSet[v]; v=edgeFrom[predIn[v]]) {
+                node(v, apply);
+                step(predIn[v], apply);
+            }
+            x = edgeTo[id];
+        } else {
+            int j = (-id - 1) / nNodes;
+            x = (-id - 1) % nNodes;
+            for (int k=j, v=x; k > 0; v=edgeFrom[layerPred[k][v]], k--) {
+                node(v, apply);
+                step(layerPred[k][v], apply);
+            }
+        }
+        for (int v=x; !inSet[v]; v=edgeTo[predOut[v]]) {
+            node(v, apply);
+            step(predOut[v], apply);
+        }
+    }
+
+    private void step(int e, boolean apply) {
+        if (apply) {
+            chosen[e] = true;
+        } else if (!chosen[e] && edgeStamp[e] != clock) {
+            edgeStamp[e] = clock;
+            earCost += edgeWeight[e];
+        }
+    }
+
+    private void node(int v, boolean apply) {
+        if (stamp[v] == clock)
+            return;
+        stamp[v] = clock;
+        earNodes++;
+        if (apply)
+            added[covered++] = v;
+    }
+
+    /**
+     * @return  the cheapest of getSolution(root) over ROOTS roots spread
+     *          over the node indexes, and the Edmonds upper bound
+     */
+    public ArrayList<Edge> getSolution() {
+        ArrayList<Edge> best = new Edmonds(graph).getUpperBoundSolution();
+        if (best == null)
+            return null;
+        int count = Math.min(ROOTS, nNodes);
+        for (int r=0; r<count; r++) {
+            ArrayList<Edge> solution =
+                getSolution((int)((long)r * nNodes / count));
+            if (Edge.getTotalWeight(solution) < Edge.getTotalWeight(best))
+                best = solution;
+        }
+        return best;
+    }
+
+    /**
+     * layerDist[j][x]: cheapest walk of j edges from the chosen nodes to x
+     * over nodes outside them, O(maxLayer * e)
+     */
+    private void layeredPaths(int maxLayer) {
+        for (int j=1; j<=maxLayer; j++)
+            Arrays.fill(layerDist[j], DistanceOracle.INFINITY);
+        for (int j=0; j<maxLayer; j++) {
+            for (int u=0; u<nNodes; u++) {
+                if ((j == 0) != inSet[u])
+                    continue;
+                long du = (j == 0) ? 0 : layerDist[j][u];
+                if (du == DistanceOracle.INFINITY)
+                    continue;
+                for (int e : outList[u]) {
+                    int v = edgeTo[e];
+                    long d = du + edgeWeight[e];
+                    if (!inSet[v] && d < layerDist[j+1][v]) {
+                        layerDist[j+1][v] = (int)d;
+                        layerPred[j+1][v] = e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * make u, just chosen, a source of the search from the chosen nodes
+     * (forwards) or to them
+     */
+    private void search(int u, boolean forwards) {
+        int[] dist = forwards ? distIn : distOut;
+        int[] depth = forwards ? depthIn : depthOut;
+        Dijkstra.Heap heap = forwards ? heapIn : heapOut;
+        dist[u] = 0;
+        depth[u] = 0;
+        heap.push(u, 0);
+    }
+
+    /**
+     * Dijkstra from the chosen nodes over the edges out, or to them over
+     * the edges in, through outside nodes only, carried on from the last
+     * step: a step only adds sources, so distances only go down, and only
+     * the nodes they go down for are searched again.  A node's depth, the
+     * number of outside nodes on its path, is set when it is settled.
+     */
+    private void settle(boolean forwards) {
+        int[] dist = forwards ? distIn : distOut;
+        int[] pred = forwards ? predIn : predOut;
+        int[] depth = forwards ? depthIn : depthOut;
+        int[][] lists = forwards ? outList : inList;
+        int[] near = forwards ? edgeFrom : edgeTo;
+        int[] far = forwards ? edgeTo : edgeFrom;
+        Dijkstra.Heap heap = forwards ? heapIn : heapOut;
+        while (heap.size > 0) {
+            int u = heap.pop();
+            if (!inSet[u])
+                depth[u] = depth[near[pred[u]]] + 1;
+            for (int e : lists[u]) {
+                int v = far[e];
+                if (inSet[v])
+                    continue;
+                long d = (long)dist[u] + edgeWeight[e];
+                if (d < dist[v]) {
+                    dist[v] = (int)d;
+                    pred[v] = e;
+                    heap.push(v, (int)d);
+                }
+            }
+        }
+    }
+
+    /**
+     * With -n, time getSolution() on FloydWarshall.randomGraph(n) for each
+     * n, against the Edmonds upper bound alone.
+     */
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+	if (args.length < 1) {
+	    System.out.println("Usage: EarHeuristic <inputfile> ...");
+	    System.out.println("       EarHeuristic -n nodes ...");
+	    return;
+	}
+        if (args[0].equals("-n")) {
+            System.out.println("n\tedges\tseconds\tweight\tEdmonds");
+            for (int i=1; i<args.length; i++) {
+                int n = Integer.parseInt(args[i]);
+                AdjacencyList graph = FloydWarshall.randomGraph(n, n);
+                long start = System.nanoTime();
+                ArrayList<Edge> edges = new EarHeuristic(graph).getSolution();
+                double t = (System.nanoTime() - start) / 1e9;
+                ArrayList<Edge> bound =
+                    new Edmonds(graph).getUpperBoundSolution();
+                System.out.println(n + "\t" + graph.getAllEdges().size() +
+                        "\t" + t + "\t" + Edge.getTotalWeight(edges) +
+                        "\t" + Edge.getTotalWeight(bound));
+            }
+            return;
+        }
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            AdjacencyList graph = Facebull.loadFile(file);
+            long start = System.currentTimeMillis();
+            ArrayList<Edge> edges = new EarHeuristic(graph).getSolution();
+            double t = (System.currentTimeMillis() - start)/1000.0;
+            Debug.println("elapsed time = " + t);
+            EdgeSetSearch search = new EdgeSetSearch(graph);
+            edges = search.improve(edges);
+            Debug.println("recovered = " + search.getRecovered());
+            Facebull.printSolution(edges);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Local search on a strongly connected edge set, to run after any
+ * heuristic.  Tours from Kpermute and Annealing are one closed walk, and
+ * the optimum often isn't, so a few edge level moves recover weight:
+ *
+ *   drop     remove an edge the set doesn't need
+ *   swap     replace an edge by one cheaper edge
+ *   detour   replace an edge by a path of new edges, then drop what that
+ *            made redundant, and keep it if the set got lighter
+ *
+ * The set stays strongly connected throughout, but there is no
+ * incremental strong-connectivity structure behind it; this is a
+ * bounded-BFS adaptation.  Taking out edge u->v keeps the set strongly
+ * connected exactly when u still reaches v, and adding edges can't break
+ * it, so each move checks only the edges it takes out, each by a breadth
+ * first search from its tail that stops at its head, O(n + e) rather
+ * than a full component pass.  An edge out of a node with one outgoing
+ * edge (or into a node with one incoming edge) is known needed without a
+ * search: degrees are kept per node.  After a detour every chosen edge
+ * is checked, so a detour costs O(n * (n + e)).
+ *
+ * A swap or detour for u->v must join the nodes u still reaches to the
+ * nodes that still reach v, so both sets are found once per edge: the
+ * cheapest swap is the cheapest edge between them, and the cheapest
+ * detour a Dijkstra from one to the other in which the set's edges are
+ * free.  A detour that doesn't pay for itself is undone from a journal.
+ */
+public class EdgeSetSearch {
+    AdjacencyList graph;
+    int nNodes;
+    Edge[] edges;               // heaviest first
+    int[] edgeFrom;
+    int[] edgeTo;
+    int[][] outList;
+    int[][] inList;
+
+    boolean[] chosen;
+    int[] outDegree;
+    int[] inDegree;
+    long weight;
+
+    // undo log of the current trial: edge + 1 if added, -(edge + 1) if
+    // removed
+    int[] journal;
+    int journalSize;
+
+    // search state
+    int[] forward;              // stamp of the nodes u reaches
+    int[] backward;             // stamp of the nodes reaching v
+    int clock;
+    int[] queue;
+    int target;                 // where the last detour ends
+    long[] dist;
+    int[] pred;
+    boolean[] settled;
+
+    long dropGain;
+    long swapGain;
+    long detourGain;
+
+    public EdgeSetSearch(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        Collections.sort(allEdges, new EdgeWeightComparator());
+        Collections.reverse(allEdges);
+        int nEdges = allEdges.size();
+        edges = allEdges.toArray(new Edge[nEdges]);
+        edgeFrom = new int[nEdges];
+        edgeTo = new int[nEdges];
+        int[] outCount = new int[nNodes];
+        int[] inCount = new int[nNodes];
+        for (int i=0; i<nEdges; i++) {
+            edgeFrom[i] = graph.getNodeIndex(edges[i].from);
+            edgeTo[i] = graph.getNodeIndex(edges[i].to);
+            outCount[edgeFrom[i]]++;
+            inCount[edgeTo[i]]++;
+        }
+        outList = new int[nNodes][];
+        inList = new int[nNodes][];
+        for (int v=0; v<nNodes; v++) {
+            outList[v] = new int[outCount[v]];
+            inList[v] = new int[inCount[v]];
+        }
+        Arrays.fill(outCount, 0);
+        Arrays.fill(inCount, 0);
+        for (int i=0; i<nEdges; i++) {
+            outList[edgeFrom[i]][outCount[edgeFrom[i]]++] = i;
+            inList[edgeTo[i]][inCount[edgeTo[i]]++] = i;
+        }
+
+        chosen = new boolean[nEdges];
+        outDegree = new int[nNodes];
+        inDegree = new int[nNodes];
+        journal = new int[2 * nEdges + 1];
+        forward = new int[nNodes];
+        backward = new int[nNodes];
+        queue = new int[nNodes];
+        dist = new long[nNodes];
+        pred = new int[nNodes];
+        settled = new boolean[nNodes];
+    }
+
+    /**
+     * @return  solution with the moves applied until none helps, or
+     *          solution itself if it is not strongly connected
+     */
+    public ArrayList<Edge> improve(ArrayList<Edge> solution) {
+        if (solution == null)
+            return null;
+        Arrays.fill(chosen, false);
+        Arrays.fill(outDegree, 0);
+        Arrays.fill(inDegree, 0);
+        weight = 0;
+        dropGain = swapGain = detourGain = 0;
+        for (Edge e : solution) {
+            int i = indexOf(e);
+            if (i < 0 || chosen[i])
+                return solution;
+            add(i);
+        }
+        if (!isStronglyConnected())
+            return solution;
+
+        boolean changed = true;
+        while (changed) {
+            dropGain += drop();
+            changed = replace();
+        }
+
+        ArrayList<Edge> improved = new ArrayList<Edge>();
+        for (int i=0; i<edges.length; i++) {
+            if (chosen[i])
+                improved.add(edges[i]);
+        }
+        Debug.println(2, "recovered: drop " + dropGain + ", swap " +
+                swapGain + ", detour " + detourGain);
+        return improved;
+    }
+
+    /**
+     * @return  weight taken off by the last improve()
+     */
+    public long getRecovered() {
+        return dropGain + swapGain + detourGain;
+    }
+
+    /**
+     * remove the edges not needed, heaviest first
+     *
+     * @return  the weight removed
+     */
+    private long drop() {
+        long gain = 0;
+        for (int i=0; i<edges.length; i++) {
+            if (chosen[i] && isRedundant(i)) {
+                remove(i);
+                gain += edges[i].weight;
+            }
+        }
+        return gain;
+    }
+
+    private boolean isRedundant(int e) {
+        int u = edgeFrom[e], v = edgeTo[e];
+        if (outDegree[u] == 1 || inDegree[v] == 1)
+            return false;
+        chosen[e] = false;
+        clock++;
+        boolean reached = search(u, v, forward, true);
+        chosen[e] = true;
+        return reached;
+    }
+
+    /**
+     * try a swap, then a detour, for each chosen edge, heaviest first
+     *
+     * @return  true if any was applied
+     */
+    private boolean replace() {
+        boolean changed = false;
+        for (int e=0; e<edges.length; e++) {
+            if (!chosen[e] || edges[e].weight == 0)
+                continue;
+            int u = edgeFrom[e], v = edgeTo[e];
+            long w = edges[e].weight;
+            remove(e);
+            clock++;
+            if (search(u, v, forward, true)) {
+                dropGain += w;
+                changed = true;
+                continue;
+            }
+            search(v, -1, backward, false);
+
+            // swap: the cheapest edge from the nodes u reaches to the
+            // nodes reaching v
+            int best = -1;
+            for (int f=edges.length-1; f>=0 && edges[f].weight < w; f--) {
+                if (!chosen[f] && forward[edgeFrom[f]] == clock &&
+                        backward[edgeTo[f]] == clock) {
+                    best = f;
+                    break;
+                }
+            }
+            if (best >= 0) {
+                add(best);
+                swapGain += w - edges[best].weight;
+                changed = true;
+                continue;
+            }
+
+            // detour: the cheapest path of new edges, less what becomes
+            // redundant with it
+            long cost = detour();
+            if (cost == Long.MAX_VALUE) {
+                add(e);
+                continue;
+            }
+            journalSize = 0;
+            for (int x = pred[target]; x >= 0; x = pred[edgeFrom[x]]) {
+                if (!chosen[x]) {
+                    add(x);
+                    journal[journalSize++] = x + 1;
+                }
+            }
+            // one search per chosen edge, O(n * (n + e))
+            long saved = w - cost;
+            for (int f=0; f<edges.length; f++) {
+                if (chosen[f] && isRedundant(f)) {
+                    remove(f);
+                    journal[journalSize++] = -(f + 1);
+                    saved += edges[f].weight;
+                }
+            }
+            if (saved > 0) {
+                detourGain += saved;
+                changed = true;
+                continue;
+            }
+            while (journalSize > 0) {
+                int x = journal[--journalSize];
+                if (x > 0)
+                    remove(x - 1);
+                else
+                    add(-x - 1);
+            }
+            add(e);
+        }
+        return changed;
+    }
+
+    /**
+     * Dijkstra from the nodes u reaches to the first node reaching v,
+     * where chosen edges are free, O(n^2 + e).  Leaves the end in target
+     * and the path in pred.
+     *
+     * @return  the weight of its new edges, or Long.MAX_VALUE if there is
+     *          no path
+     */
+    private long detour() {
+        Arrays.fill(dist, Long.MAX_VALUE);
+        Arrays.fill(settled, false);
+        for (int v=0; v<nNodes; v++) {
+            if (forward[v] == clock) {
+                dist[v] = 0;
+                pred[v] = -1;
+            }
+        }
+        while (true) {
+            int u = -1;
+            for (int v=0; v<nNodes; v++) {
+                if (!settled[v] && dist[v] != Long.MAX_VALUE &&
+                        (u < 0 || dist[v] < dist[u]))
+                    u = v;
+            }
+            if (u < 0)
+                return Long.MAX_VALUE;
+            if (backward[u] == clock) {
+                target = u;
+                return dist[u];
+            }
+            settled[u] = true;
+            for (int e : outList[u]) {
+                int v = edgeTo[e];
+                long d = dist[u] + (chosen[e] ? 0 : edges[e].weight);
+                if (d < dist[v]) {
+                    dist[v] = d;
+                    pred[v] = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Breadth first search over the chosen edges, from s forwards (or
+     * backwards), stamping the nodes reached with clock.
+     *
+     * @return  true if it reached t, where it stops
+     */
+    private boolean search(int s, int t, int[] mark, boolean forwards) {
+        int head = 0, tail = 0;
+        queue[tail++] = s;
+        mark[s] = clock;
+        while (head < tail) {
+            int u = queue[head++];
+            if (u == t)
+                return true;
+            int[] list = forwards ? outList[u] : inList[u];
+            for (int e : list) {
+                if (!chosen[e])
+                    continue;
+                int v = forwards ? edgeTo[e] : edgeFrom[e];
+                if (mark[v] != clock) {
+                    mark[v] = clock;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isStronglyConnected() {
+        clock++;
+        search(0, -1, forward, true);
+        search(0, -1, backward, false);
+        for (int v=0; v<nNodes; v++) {
+            if (forward[v] != clock || backward[v] != clock)
+                return false;
+        }
+        return true;
+    }
+
+    private void add(int e) {
+        chosen[e] = true;
+        outDegree[edgeFrom[e]]++;
+        inDegree[edgeTo[e]]++;
+        weight += edges[e].weight;
+    }
+
+    private void remove(int e) {
+        chosen[e] = false;
+        outDegree[edgeFrom[e]]--;
+        inDegree[edgeTo[e]]--;
+        weight -= edges[e].weight;
+    }
+
+    private int indexOf(Edge e) {
+        for (int i : outList[graph.getNodeIndex(e.from)]) {
+            if (edges[i] == e)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return  the lighter of EarHeuristic and Kpermute, each improved,
+     *          for an exact solver to start from, or null if graph is not
+     *          strongly connected.  Neither wins everywhere: the ears are
+     *          better on big sparse graphs, the tours on small dense ones.
+     */
+    public static ArrayList<Edge> getSeed(AdjacencyList graph) {
+        EdgeSetSearch search = new EdgeSetSearch(graph);
+        ArrayList<Edge> ears = search.improve(
+                new EarHeuristic(graph).getSolution());
+        if (ears == null)
+            return null;
+        ArrayList<Integer> klist = new ArrayList<Integer>()
+            {{ add(5); add(4); add(3); add(2); }};
+        ArrayList<Edge> tour = search.improve(
+                new Kpermute(graph).solve(klist));
+        if (Edge.getTotalWeight(tour) < Edge.getTotalWeight(ears))
+            return tour;
+        return ears;
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(0);
+	if (args.length < 1) {
+	    System.out.println("Usage: EdgeSetSearch <inputfile> ...");
+	    return;
+	}
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            AdjacencyList graph = Facebull.loadFile(file);
+            EdgeSetSearch search = new EdgeSetSearch(graph);
+            ArrayList<Integer> klist = new ArrayList<Integer>()
+                {{ add(5); add(4); add(3); add(2); }};
+            Annealing annealing = new Annealing(graph);
+            annealing.setTimeLimit(1000);
+            ArrayList<ArrayList<Edge>> solutions =
+                new ArrayList<ArrayList<Edge>>();
+            solutions.add(new Edmonds(graph).getUpperBoundSolution());
+            solutions.add(new Kpermute(graph).solve(klist));
+            solutions.add(annealing.getSolution());
+            solutions.add(new EarHeuristic(graph).getSolution());
+            String[] names = { "Edmonds", "Kpermute", "Annealing",
+                "EarHeuristic" };
+            System.out.print(file);
+            for (int k=0; k<names.length; k++) {
+                ArrayList<Edge> s = solutions.get(k);
+                if (s == null)
+                    continue;
+                int before = Edge.getTotalWeight(s);
+                int after = Edge.getTotalWeight(search.improve(s));
+                System.out.print("  " + names[k] + " " + before + " -" +
+                        (before - after));
+            }
+            System.out.println();
+        }
+    }
+}
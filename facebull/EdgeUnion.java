@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The real cost of a tour: the weight of the distinct edges on the
+ * shortest paths between its consecutive nodes.  Summing the leg
+ * distances would charge an edge once for every leg going over it, but
+ * the answer only pays for it once.
+ *
+ * Each edge keeps a count of the legs using it, and the cost only counts
+ * edges with a nonzero count.  Adding or removing a leg walks its path
+ * from the DistanceOracle, so changing a leg costs the length of the old
+ * and new paths, not of the whole tour.
+ *
+ * Copies share the oracle and keep their own counts, so each
+ * thread can score its own tour.
+ */
+public class EdgeUnion {
+    DistanceOracle oracle;
+    Edge[] edges;
+    int[] count;
+    int[] path;
+    long cost;
+    int broken;                 // legs with no path
+
+    public EdgeUnion(AdjacencyList graph, DistanceOracle o) {
+        oracle = o;
+        edges = oracle.getArcs();
+        count = new int[edges.length];
+        path = new int[graph.getNodeList().size()];
+    }
+
+    /**
+     * an empty union over the same graph as u
+     */
+    public EdgeUnion(EdgeUnion u) {
+        oracle = u.oracle;
+        edges = u.edges;
+        count = new int[edges.length];
+        path = new int[u.path.length];
+    }
+
+    public void clear() {
+        Arrays.fill(count, 0);
+        cost = 0;
+        broken = 0;
+    }
+
+    /**
+     * replace the legs with those of tour, a cycle over node indexes
+     *
+     * @return  its cost
+     */
+    public long setTour(int[] tour) {
+        clear();
+        for (int i=0; i<tour.length; i++)
+            addLeg(tour[i], tour[(i + 1) % tour.length]);
+        return getCost();
+    }
+
+    public void addLeg(int u, int v) {
+        walk(u, v, 1);
+    }
+
+    public void removeLeg(int u, int v) {
+        walk(u, v, -1);
+    }
+
+    /**
+     * @return  the weight of the edges used by some leg, or Long.MAX_VALUE
+     *          if a leg has no path
+     */
+    public long getCost() {
+        return (broken > 0) ? Long.MAX_VALUE : cost;
+    }
+
+    /**
+     * @return  the edges used by some leg
+     */
+    public ArrayList<Edge> getEdges() {
+        ArrayList<Edge> list = new ArrayList<Edge>();
+        for (int i=0; i<edges.length; i++) {
+            if (count[i] > 0)
+                list.add(edges[i]);
+        }
+        return list;
+    }
+
+    private void walk(int u, int v, int d) {
+        if (u == v)
+            return;
+        int length = oracle.getShortestPathArcs(u, v, path);
+        if (length == 0) {
+            broken += d;
+            return;
+        }
+        for (int k=0; k<length; k++) {
+            int e = path[k];
+            if (d > 0 && count[e]++ == 0)
+                cost += edges[e].weight;
+            else if (d < 0 && --count[e] == 0)
+                cost -= edges[e].weight;
+        }
+    }
+}
@@ -4,7 +4,9 @@ import java.util.Comparator;
 public class EdgeWeightComparator implements Comparator<Edge> {
 
     public int compare(Edge e1, Edge e2){
-       return e1.weight - e2.weight;
+       if (e1.weight != e2.weight)
+           return e1.weight - e2.weight;
+       return e1.name - e2.name;
     }
 
     public boolean equals(Edge e1, Edge e2) {
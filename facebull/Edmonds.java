@@ -0,0 +1,401 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+/**
+ * Minimum cost arborescences (optimum branchings), using Tarjan's
+ * O(E log V) version of Edmonds's algorithm: the cheapest incoming edge of
+ * each node is kept in a skew heap with lazy weight adjustments, and cycles
+ * are contracted with a union-find that can be rolled back to expand them
+ * again at the end.
+ *
+ * Any strongly connected set of machines contains an out-arborescence
+ * (every node reachable from the root) and an in-arborescence (every node
+ * reaches the root), so the heavier of the two is a lower bound.  The
+ * union of the two is itself strongly connected, so it is an upper bound.
+ */
+public class Edmonds {
+    static final int ROOTS = 4;         // for the bounds without a root
+
+    AdjacencyList graph;
+    int nNodes;
+    Edge[] edges;
+    int[] edgeFrom;
+    int[] edgeTo;
+
+    public Edmonds(AdjacencyList g) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> allEdges = graph.getAllEdges();
+        edges = allEdges.toArray(new Edge[allEdges.size()]);
+        edgeFrom = new int[edges.length];
+        edgeTo = new int[edges.length];
+        for (int i=0; i<edges.length; i++) {
+            edgeFrom[i] = graph.getNodeIndex(edges[i].from);
+            edgeTo[i] = graph.getNodeIndex(edges[i].to);
+        }
+    }
+
+    /**
+     * @return  minimum cost edges such that every node is reachable from
+     *          the node with index root, or null if there are none
+     */
+    public ArrayList<Edge> getOutArborescence(int root) {
+        return arborescence(root, edgeFrom, edgeTo);
+    }
+
+    /**
+     * @return  minimum cost edges such that every node reaches the node with
+     *          index root, or null if there are none
+     */
+    public ArrayList<Edge> getInArborescence(int root) {
+        return arborescence(root, edgeTo, edgeFrom);
+    }
+
+    /**
+     * @return  max(in, out) arborescence weight rooted at root, a lower
+     *          bound on any solution, or -1 if the graph is not strongly
+     *          connected
+     */
+    public int getLowerBound(int root) {
+        ArrayList<Edge> out = getOutArborescence(root);
+        ArrayList<Edge> in = getInArborescence(root);
+        if (out == null || in == null)
+            return -1;
+        return Math.max(Edge.getTotalWeight(out), Edge.getTotalWeight(in));
+    }
+
+    /**
+     * @return  union of the in and out arborescences rooted at root, less
+     *          any edges that are redundant for strong connectivity, or null
+     *          if the graph is not strongly connected
+     */
+    public ArrayList<Edge> getUpperBoundSolution(int root) {
+        ArrayList<Edge> out = getOutArborescence(root);
+        ArrayList<Edge> in = getInArborescence(root);
+        if (out == null || in == null)
+            return null;
+        LinkedHashSet<Edge> union = new LinkedHashSet<Edge>(out);
+        union.addAll(in);
+        ArrayList<Edge> solution = new ArrayList<Edge>(union);
+        removeRedundant(graph, solution);
+        return solution;
+    }
+
+    /**
+     * @return  the best lower bound over ROOTS roots spread over the node
+     *          indexes, each O(e log n)
+     */
+    public int getLowerBound() {
+        int best = -1;
+        for (int r : roots())
+            best = Math.max(best, getLowerBound(r));
+        return best;
+    }
+
+    /**
+     * @return  the cheapest getUpperBoundSolution(root) over ROOTS roots
+     *          spread over the node indexes
+     */
+    public ArrayList<Edge> getUpperBoundSolution() {
+        ArrayList<Edge> best = null;
+        for (int r : roots()) {
+            ArrayList<Edge> solution = getUpperBoundSolution(r);
+            if (solution == null)
+                return null;
+            if (best == null || Edge.getTotalWeight(solution) <
+                    Edge.getTotalWeight(best))
+                best = solution;
+        }
+        return best;
+    }
+
+    /**
+     * @return  up to ROOTS distinct node indexes, evenly spaced from 0
+     */
+    private int[] roots() {
+        int count = Math.min(ROOTS, nNodes);
+        int[] roots = new int[count];
+        for (int r=0; r<count; r++)
+            roots[r] = (int)((long)r * nNodes / count);
+        return roots;
+    }
+
+    /**
+     * drop edges, most expensive first, while the rest stays strongly
+     * connected.  Dropping u->v keeps the set strongly connected iff u
+     * still reaches v without it: one search over the solution's own
+     * edge lists, by node index, for each edge.  Leaves solution sorted
+     * by decreasing weight.
+     */
+    static void removeRedundant(AdjacencyList graph, ArrayList<Edge> solution) {
+        Collections.sort(solution, new EdgeWeightComparator());
+        Collections.reverse(solution);
+        int n = graph.getNodeList().size();
+        int k = solution.size();
+        int[] from = new int[k];
+        int[] to = new int[k];
+        int[] outDegree = new int[n];
+        int[] inDegree = new int[n];
+        int[] first = new int[n + 1];
+        for (int i=0; i<k; i++) {
+            from[i] = graph.getNodeIndex(solution.get(i).from);
+            to[i] = graph.getNodeIndex(solution.get(i).to);
+            outDegree[from[i]]++;
+            inDegree[to[i]]++;
+            first[from[i] + 1]++;
+        }
+        for (int u=0; u<n; u++)
+            first[u+1] += first[u];
+        int[] out = new int[k];         // solution edges by tail
+        int[] fill = Arrays.copyOf(first, n);
+        for (int i=0; i<k; i++)
+            out[fill[from[i]]++] = i;
+
+        boolean[] dropped = new boolean[k];
+        int[] mark = new int[n];
+        int[] queue = new int[n];
+        int clock = 0;
+        for (int i=0; i<k; i++) {
+            int u = from[i], v = to[i];
+            if (u != v && (outDegree[u] == 1 || inDegree[v] == 1))
+                continue;
+            dropped[i] = true;
+            clock++;
+            int head = 0, tail = 0;
+            queue[tail++] = u;
+            mark[u] = clock;
+            while (head < tail && mark[v] != clock) {
+                int x = queue[head++];
+                for (int j=first[x]; j<first[x+1]; j++) {
+                    int y = to[out[j]];
+                    if (!dropped[out[j]] && mark[y] != clock) {
+                        mark[y] = clock;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+            if (mark[v] == clock) {
+                outDegree[u]--;
+                inDegree[v]--;
+            } else {
+                dropped[i] = false;
+            }
+        }
+        int kept = 0;
+        for (int i=0; i<k; i++) {
+            if (!dropped[i])
+                solution.set(kept++, solution.get(i));
+        }
+        solution.subList(kept, k).clear();
+    }
+
+    /**
+     * Minimum arborescence rooted at root where edge i goes from tail[i] to
+     * head[i], and every node except root gets one incoming edge.
+     */
+    private ArrayList<Edge> arborescence(int root, int[] tail, int[] head) {
+        int n = nNodes;
+        if (n == 0)
+            return null;
+        RollbackUnionFind uf = new RollbackUnionFind(n);
+        HeapNode[] heap = new HeapNode[n];
+        for (int i=0; i<edges.length; i++) {
+            if (tail[i] != head[i])
+                heap[head[i]] = merge(heap[head[i]],
+                    new HeapNode(i, edges[i].weight));
+        }
+
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        seen[root] = root;
+        int[] path = new int[n];
+        int[] queue = new int[n];       // edge chosen for path[i]
+        int[] in = new int[n];          // chosen incoming edge of each node
+        Arrays.fill(in, -1);
+
+        // contracted cycles: representative, union-find time, and the
+        // edges of the cycle
+        ArrayList<int[]> cycles = new ArrayList<int[]>();
+
+        for (int s=0; s<n; s++) {
+            int u = s, qi = 0;
+            while (seen[u] < 0) {
+                if (heap[u] == null)
+                    return null;            // u is unreachable
+                HeapNode top = heap[u].top();
+                heap[u].delta -= top.weight;
+                heap[u] = pop(heap[u]);
+                queue[qi] = top.edge;
+                path[qi++] = u;
+                seen[u] = s;
+                u = uf.find(tail[top.edge]);
+                if (seen[u] == s) {
+                    // found a cycle: contract it into one node
+                    HeapNode cyc = null;
+                    int end = qi, time = uf.time();
+                    int w;
+                    do {
+                        w = path[--qi];
+                        cyc = merge(cyc, heap[w]);
+                    } while (uf.join(u, w));
+                    u = uf.find(u);
+                    heap[u] = cyc;
+                    seen[u] = -1;
+                    int[] cycle = new int[2 + end - qi];
+                    cycle[0] = u;
+                    cycle[1] = time;
+                    System.arraycopy(queue, qi, cycle, 2, end - qi);
+                    cycles.add(cycle);
+                }
+            }
+            for (int i=0; i<qi; i++)
+                in[uf.find(head[queue[i]])] = queue[i];
+        }
+
+        // expand the contracted cycles, most recent first
+        for (int c=cycles.size()-1; c>=0; c--) {
+            int[] cycle = cycles.get(c);
+            uf.rollback(cycle[1]);
+            int inEdge = in[cycle[0]];
+            for (int i=2; i<cycle.length; i++)
+                in[uf.find(head[cycle[i]])] = cycle[i];
+            in[uf.find(head[inEdge])] = inEdge;
+        }
+
+        ArrayList<Edge> result = new ArrayList<Edge>();
+        for (int v=0; v<n; v++) {
+            if (v != root)
+                result.add(edges[in[v]]);
+        }
+        return result;
+    }
+
+    /**
+     * skew heap node holding an edge, keyed by its adjusted weight.  delta
+     * is a pending adjustment for the whole subtree.
+     */
+    static class HeapNode {
+        int edge;
+        long weight;
+        long delta;
+        HeapNode left, right;
+
+        HeapNode(int e, long w) {
+            edge = e;
+            weight = w;
+        }
+
+        void push() {
+            weight += delta;
+            if (left != null)
+                left.delta += delta;
+            if (right != null)
+                right.delta += delta;
+            delta = 0;
+        }
+
+        HeapNode top() {
+            push();
+            return this;
+        }
+    }
+
+    static HeapNode merge(HeapNode a, HeapNode b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        a.push();
+        b.push();
+        if (a.weight > b.weight) {
+            HeapNode t = a;
+            a = b;
+            b = t;
+        }
+        HeapNode r = merge(b, a.right);
+        a.right = a.left;
+        a.left = r;
+        return a;
+    }
+
+    static HeapNode pop(HeapNode a) {
+        a.push();
+        return merge(a.left, a.right);
+    }
+
+    /**
+     * union-find by size without path compression, so that joins can be
+     * undone in reverse order.
+     */
+    static class RollbackUnionFind {
+        int[] e;                        // -size for roots, else parent
+        int[] stackIndex;
+        int[] stackValue;
+        int top;
+
+        RollbackUnionFind(int n) {
+            e = new int[n];
+            Arrays.fill(e, -1);
+            stackIndex = new int[2*n];
+            stackValue = new int[2*n];
+        }
+
+        int find(int x) {
+            while (e[x] >= 0)
+                x = e[x];
+            return x;
+        }
+
+        int time() {
+            return top;
+        }
+
+        void rollback(int t) {
+            while (top > t) {
+                top--;
+                e[stackIndex[top]] = stackValue[top];
+            }
+        }
+
+        boolean join(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a == b)
+                return false;
+            if (e[a] > e[b]) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            save(a);
+            save(b);
+            e[a] += e[b];
+            e[b] = a;
+            return true;
+        }
+
+        private void save(int x) {
+            stackIndex[top] = x;
+            stackValue[top] = e[x];
+            top++;
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(1);
+	if (args.length < 1) {
+	    System.out.println("Usage: Edmonds <inputfile> ...");
+	    return;
+	}
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            AdjacencyList graph = Facebull.loadFile(file);
+            Edmonds solver = new Edmonds(graph);
+            Debug.println("lower bound = " + solver.getLowerBound());
+            Facebull.printSolution(solver.getUpperBoundSolution());
+        }
+    }
+}
@@ -1,10 +1,7 @@
-import java.io.FileReader;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Set;
 
 public class Facebull {
@@ -21,47 +18,27 @@ public class Facebull {
 
     }
 
+    /**
+     * @param file  a machine list, or "-" for standard input
+     * @return      the graph, or null if the file can't be read or has a
+     *              bad line
+     */
     public static AdjacencyList loadFile(String file) {
-        BufferedReader reader;
-        AdjacencyList graph = new AdjacencyList();
+        GraphBuilder builder = new GraphBuilder();
         try {
-            String bufStr;
-            reader = new BufferedReader(new FileReader(file));
-            HashMap<String,Node> nodeMap = new HashMap<String,Node>();
-            while ((bufStr = reader.readLine()) != null){
-                String[] mach = bufStr.split("\\s+");
-                if (mach.length < 4) {
-                    continue;
-                }
-                Node n1, n2;
-                Integer name;
-                n1 = (Node)nodeMap.get(mach[1]);
-                if (n1 == null) {
-                    name = new Integer(mach[1].substring(1));
-                    n1 = new Node(name.intValue());
-                    nodeMap.put(mach[1], n1);
-                }
-                n2 = (Node)nodeMap.get(mach[2]);
-                if (n2 == null) {
-                    name = new Integer(mach[2].substring(1));
-                    n2 = new Node(name.intValue());
-                    nodeMap.put(mach[2], n2);
-                }
-                Long price = new Long(mach[3]);
-                int w = price.intValue();
-                name = new Integer(mach[0].substring(1));
-                graph.addEdge(name.intValue(), n1, n2, w);
-            }
-            reader.close();
+            PriceListReader.read(file, builder);
         }  catch (FileNotFoundException fnf) {
             System.out.println("Input file not found:" + file);
-            graph = null;
+            return null;
+        } catch (PriceListReader.FormatException fe) {
+            System.out.println("Bad input file:" + fe.getMessage());
+            return null;
         } catch (IOException ioe) {
             System.out.println("Unable to read input file:" + file);
-            graph = null;
+            return null;
         }
 
-        return graph;
+        return builder.toAdjacencyList();
     }
 
     static void printSolution(Edge[] minCircuit, int minCircuitLength) {
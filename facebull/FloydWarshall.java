@@ -1,27 +1,81 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class FloydWarshall {
-    AdjacencyList graph;
-    int[][] D = null;
-    Node[][] P;
+/**
+ * All pairs shortest paths by blocked Floyd-Warshall.
+ *
+ * The distances and next hops are flat int arrays, row i in
+ * [i*n, (i+1)*n).  While computing, a missing path is UNREACHED, half of
+ * Integer.MAX_VALUE, so UNREACHED + UNREACHED still fits in an int and
+ * the inner loop is a plain add and compare with no INFINITY checks;
+ * afterwards those entries become INFINITY.  That only holds while every
+ * path is shorter than UNREACHED, and the diagonal holds circuits, of up
+ * to n edges: if n of the heaviest edge could reach it, missing paths are
+ * INFINITY from the start and the scalar relaxWide() adds in long, which
+ * is slower but exact up to INFINITY.
+ *
+ * The matrix is cut in BLOCK x BLOCK tiles.  For each diagonal tile k:
+ * the tile itself is closed over its own nodes, then the tiles in its row
+ * and column, then all the others, each only reading tiles already done
+ * for this k.  A tile stays in cache for its whole pass, and the tiles of
+ * the second and third phases are independent, so with setThreads() they
+ * run in parallel.
+ *
+ * The inner loop is a MinPlus.  If VectorMinPlus was built (make vector)
+ * and the JVM runs with --add-modules jdk.incubator.vector, it is used;
+ * otherwise the scalar loop here.
+ */
+public class FloydWarshall implements DistanceOracle {
+    static final int BLOCK = 64;
+    static final int UNREACHED = Integer.MAX_VALUE / 2;
+    static final MinPlus KERNEL = loadKernel();
+    static final int RUNS = 3;  // benchmark: best of
 
-    public static final int INFINITY = Integer.MAX_VALUE;
+    AdjacencyList graph;
+    int nNodes;
+    int[] dist = null;
+    volatile boolean ready;     // dist and next are done: see init()
+    int[] next;                 // next node on the shortest path, or -1
+    int[][] D;
+    int[][] N;
+    Edge[] arcs;
+    volatile int[] hopArc;      // hopArc[u*n+v]: the arc from u to v
+    int unreached = UNREACHED;  // INFINITY when paths may be that long
+    int threads = 1;
+    MinPlus kernel = KERNEL;
 
     public FloydWarshall(AdjacencyList g) {
         graph = g;
     }
 
+    /**
+     * Set the number of worker threads.  1 means the tiles are done on
+     * the calling thread.
+     */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+    }
+
+    /**
+     * use the scalar inner loop even if VectorMinPlus is available
+     */
+    public void setScalar() {
+        kernel = null;
+    }
+
     public int getShortestDistance(Node source, Node target){
 	int i = graph.getNodeIndex(source);
 	int j = graph.getNodeIndex(target);
 	return getShortestDistance(i, j);
     }
-    
+
     public int getShortestDistance(int sourceIndex, int targetIndex){
-        if (D == null)
+        if (!ready)
             init();
-	return D[sourceIndex][targetIndex];
+	return dist[sourceIndex*nNodes + targetIndex];
     }
 
     public ArrayList<Node> getShortestPath(Node source, Node target) {
@@ -31,66 +85,550 @@ public class FloydWarshall {
     }
 
     public ArrayList<Node> getShortestPath(int sourceIndex, int targetIndex){
-        if (D == null)
+        if (!ready)
             init();
-	Node source = graph.getNode(sourceIndex);
-	Node target = graph.getNode(targetIndex);
-        if (D[sourceIndex][targetIndex] == INFINITY){
-           return new ArrayList<Node>();
-        }
-        ArrayList<Node> path = getIntermediatePath(source, target);
-        path.add(0, source);
-        path.add(target);
+        int[] nodes = new int[nNodes + 1];
+        int length = getShortestPath(sourceIndex, targetIndex, nodes);
+        ArrayList<Node> path = new ArrayList<Node>(length);
+        for (int k=0; k<length; k++)
+            path.add(graph.getNode(nodes[k]));
         return path;
     }
 
-    private ArrayList<Node> getIntermediatePath(Node source, Node target){
-        if (D == null)
+    /**
+     * @return  the node after i on the shortest path from i to j, or -1
+     *          if there is none.  Walk a path with
+     *          for (int u=i; u != j; u = fw.getNextHop(u, j)) ...
+     */
+    public int getNextHop(int i, int j) {
+        if (!ready)
             init();
-	int i = graph.getNodeIndex(source);
-	int j = graph.getNodeIndex(target);
-        if (P[i][j] == null){
-           return new ArrayList<Node>();
+        return next[i*nNodes + j];
+    }
+
+    /**
+     * Store the node indexes of the shortest path from i to j, both ends
+     * included, in path, which needs room for n+1 (i == j is a circuit).
+     *
+     * @return  the number of nodes, 0 if there is no path
+     */
+    public int getShortestPath(int i, int j, int[] path) {
+        if (!ready)
+            init();
+        if (dist[i*nNodes + j] == INFINITY)
+            return 0;
+        int length = 0;
+        int u = i;
+        path[length++] = u;
+        do {
+            u = next[u*nNodes + j];
+            path[length++] = u;
+        } while (u != j);
+        return length;
+    }
+
+    public int getShortestPathEdges(int i, int j, Edge[] path) {
+        if (!ready)
+            init();
+        if (dist[i*nNodes + j] == INFINITY)
+            return 0;
+        if (hopArc == null)
+            initArcs();
+        int length = 0;
+        int u = i;
+        do {
+            int v = next[u*nNodes + j];
+            path[length++] = arcs[hopArc[u*nNodes + v]];
+            u = v;
+        } while (u != j);
+        return length;
+    }
+
+    public int getShortestPathArcs(int i, int j, int[] path) {
+        if (!ready)
+            init();
+        if (dist[i*nNodes + j] == INFINITY)
+            return 0;
+        if (hopArc == null)
+            initArcs();
+        int length = 0;
+        int u = i;
+        do {
+            int v = next[u*nNodes + j];
+            path[length++] = hopArc[u*nNodes + v];
+            u = v;
+        } while (u != j);
+        return length;
+    }
+
+    public Edge[] getArcs() {
+        if (hopArc == null)
+            initArcs();
+        return arcs;
+    }
+
+    /**
+     * number the edges, and the one from u to v by the next hops
+     */
+    private synchronized void initArcs() {
+        if (hopArc != null)
+            return;
+        nNodes = graph.getNodeList().size();
+        ArrayList<Edge> edges = graph.getAllEdges();
+        arcs = edges.toArray(new Edge[edges.size()]);
+        int[] hop = new int[nNodes * nNodes];
+        for (int a=0; a<arcs.length; a++) {
+            hop[graph.getNodeIndex(arcs[a].from) * nNodes +
+                graph.getNodeIndex(arcs[a].to)] = a;
         }
-        ArrayList<Node> path = new ArrayList<Node>();
-        path.addAll(getIntermediatePath(source, P[i][j]));
-        path.add(P[i][j]);
-        path.addAll(getIntermediatePath(P[i][j], target));
-        return path;
+        hopArc = hop;
     }
 
-    public int[][] getMatrix() {
-        if (D == null)
+    /**
+     * @return  the distances by rows, INFINITY where there is no path.
+     *          Shared: don't change it.
+     */
+    public int[] getDistances() {
+        if (!ready)
             init();
-        return D;
+        return dist;
     }
 
-    private void init() {
-        ArrayList<Node> nodeList = graph.getNodeList();
-        int n = nodeList.size();
-        D = new int[n][n];
-        P = new Node[n][n];
+    /**
+     * A new or cheaper edge u->v can only shorten paths through it, so
+     * each pair gets one more candidate, O(n^2).  A dearer or removed one
+     * only changes the columns j whose next hop from u is v, and in
+     * those only the nodes whose path goes through u: they are redone by
+     * a Dijkstra backwards among themselves, starting from their edges
+     * out to the nodes that keep their paths.
+     */
+    public void edgeChanged(int u, int v, int oldWeight, int weight) {
+        hopArc = null;
+        D = N = null;
+        if (!ready)
+            return;
+        if (weight < oldWeight)
+            shorten(u, v, weight);
+        else if (weight > oldWeight)
+            repair(u, v);
+    }
 
+    private void shorten(int u, int v, int weight) {
+        int n = nNodes;
         for (int i=0; i<n; i++) {
-            Arrays.fill(D[i], INFINITY);
+            long du = (i == u) ? 0 : dist[i*n + u];
+            if (du == INFINITY)
+                continue;
+            int hop = (i == u) ? v : next[i*n + u];
+            for (int j=0; j<n; j++) {
+                long dv = (j == v) ? 0 : dist[v*n + j];
+                if (dv == INFINITY)
+                    continue;
+                long d = du + weight + dv;
+                if (d < dist[i*n + j]) {
+                    dist[i*n + j] = (int)d;
+                    next[i*n + j] = hop;
+                }
+            }
         }
-        for (Edge e : graph.getAllEdges()) {
+    }
+
+    private void repair(int u, int v) {
+        int n = nNodes;
+        GraphSnapshot g = graph.getSnapshot();
+
+        // per column: which nodes' paths went over u->v (1) or not (2)
+        int[] state = new int[n];
+        int[] walk = new int[n];
+        Dijkstra.Heap heap = new Dijkstra.Heap(n);
+        for (int j=0; j<n; j++) {
+            if (next[u*n + j] != v)
+                continue;
+            Arrays.fill(state, 0);
+            state[j] = 2;
+            if (u != j)
+                state[u] = 1;
+            for (int x=0; x<n; x++) {
+                if (x == j || state[x] != 0)
+                    continue;
+                int length = 0;
+                int y = x;
+                while (state[y] == 0) {
+                    walk[length++] = y;
+                    y = next[y*n + j];
+                    if (y < 0) {
+                        y = j;
+                        break;
+                    }
+                }
+                while (length > 0)
+                    state[walk[--length]] = state[y];
+            }
+
+            // the others stay; each of these starts from its best edge
+            // out to them, then they settle among themselves
+            for (int x=0; x<n; x++) {
+                if (x == j || state[x] != 1)
+                    continue;
+                long best = INFINITY;
+                int hop = -1;
+                for (int a=g.outStart[x]; a<g.outStart[x+1]; a++) {
+                    int y = g.outTarget[a];
+                    if (y != j && (state[y] == 1 || dist[y*n + j] == INFINITY))
+                        continue;
+                    long d = (long)g.outWeight[a] +
+                        ((y == j) ? 0 : dist[y*n + j]);
+                    if (d < best) {
+                        best = d;
+                        hop = y;
+                    }
+                }
+                dist[x*n + j] = (int)best;
+                next[x*n + j] = hop;
+                if (hop >= 0)
+                    heap.push(x, (int)best);
+            }
+            while (heap.size > 0) {
+                int x = heap.pop();
+                for (int k=g.inStart[x]; k<g.inStart[x+1]; k++) {
+                    int y = g.inSource[k];
+                    if (y == j || state[y] != 1)
+                        continue;
+                    long d = (long)dist[x*n + j] + g.inWeight[k];
+                    if (d < dist[y*n + j]) {
+                        dist[y*n + j] = (int)d;
+                        next[y*n + j] = x;
+                        heap.push(y, (int)d);
+                    }
+                }
+            }
+
+            // and the circuit through j, if it went over u->v
+            int first = next[j*n + j];
+            if (j == u || (first >= 0 && first != j && state[first] == 1)) {
+                long best = INFINITY;
+                int hop = -1;
+                for (int a=g.outStart[j]; a<g.outStart[j+1]; a++) {
+                    int y = g.outTarget[a];
+                    long d = (long)g.outWeight[a] +
+                        ((y == j) ? 0 : dist[y*n + j]);
+                    if (y != j && dist[y*n + j] == INFINITY)
+                        continue;
+                    if (d < best) {
+                        best = d;
+                        hop = y;
+                    }
+                }
+                dist[j*n + j] = (int)best;
+                next[j*n + j] = hop;
+            }
+        }
+    }
+
+    public synchronized int[][] getMatrix() {
+        if (!ready)
+            init();
+        if (D == null)
+            D = toRows(dist);
+        return D;
+    }
+
+    /**
+     * @return  the next-hop matrix: N[i][j] is the node after i on the
+     *          shortest path from i to j, or -1 if there is none
+     */
+    public synchronized int[][] getNextMatrix() {
+        if (!ready)
+            init();
+        if (N == null)
+            N = toRows(next);
+        return N;
+    }
+
+    private int[][] toRows(int[] a) {
+        int[][] rows = new int[nNodes][];
+        for (int i=0; i<nNodes; i++)
+            rows[i] = Arrays.copyOfRange(a, i*nNodes, (i+1)*nNodes);
+        return rows;
+    }
+
+    /**
+     * the whole matrix, once, however many threads ask for it first;
+     * ready, set last, publishes it to the ones that don't wait here
+     */
+    private synchronized void init() {
+        if (ready)
+            return;
+        nNodes = graph.getNodeList().size();
+        int n = nNodes;
+        ArrayList<Edge> edges = graph.getAllEdges();
+        int maxWeight = 0;
+        for (Edge e : edges)
+            maxWeight = Math.max(maxWeight, e.weight);
+        unreached = ((long)n * maxWeight < UNREACHED) ?
+            UNREACHED : INFINITY;
+        dist = new int[n * n];
+        next = new int[n * n];
+        Arrays.fill(dist, unreached);
+        Arrays.fill(next, -1);
+        for (Edge e : edges) {
 	    int i = graph.getNodeIndex(e.from);
 	    int j = graph.getNodeIndex(e.to);
-            D[i][j] = e.weight;
+            if (e.weight < dist[i*n + j]) {
+                dist[i*n + j] = e.weight;
+                next[i*n + j] = j;
+            }
+        }
+        close();
+        for (int i=0; i<n*n; i++) {
+            if (dist[i] >= unreached)
+                dist[i] = INFINITY;
+        }
+        ready = true;
+    }
+
+    /**
+     * the three phases for each diagonal tile
+     */
+    private void close() {
+        int nb = (nNodes + BLOCK - 1) / BLOCK;
+        ForkJoinPool pool = null;
+        if (threads > 1 && nb > 1)
+            pool = new ForkJoinPool(threads);
+        int[] tiles = new int[nb * nb];
+        for (int kb=0; kb<nb; kb++) {
+            relaxTile(kb, kb, kb);
+            int count = 0;
+            for (int b=0; b<nb; b++) {
+                if (b != kb) {
+                    tiles[count++] = kb * nb + b;
+                    tiles[count++] = b * nb + kb;
+                }
+            }
+            runTiles(pool, tiles, count, nb, kb);
+            count = 0;
+            for (int ib=0; ib<nb; ib++) {
+                for (int jb=0; jb<nb; jb++) {
+                    if (ib != kb && jb != kb)
+                        tiles[count++] = ib * nb + jb;
+                }
+            }
+            runTiles(pool, tiles, count, nb, kb);
+        }
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private void runTiles(ForkJoinPool pool, int[] tiles, int count, int nb,
+            int kb) {
+        if (pool == null) {
+            for (int t=0; t<count; t++)
+                relaxTile(tiles[t] / nb, tiles[t] % nb, kb);
+        } else {
+            pool.invoke(new TileTask(tiles, 0, count, nb, kb));
+        }
+    }
+
+    /**
+     * relax tile (ib, jb) through the nodes of tile kb
+     */
+    private void relaxTile(int ib, int jb, int kb) {
+        int n = nNodes;
+        int iEnd = Math.min(n, (ib + 1) * BLOCK);
+        int jStart = jb * BLOCK;
+        int jEnd = Math.min(n, jStart + BLOCK);
+        int kEnd = Math.min(n, (kb + 1) * BLOCK);
+        for (int k=kb*BLOCK; k<kEnd; k++) {
+            for (int i=ib*BLOCK; i<iEnd; i++) {
+                int dik = dist[i*n + k];
+                if (dik >= unreached)
+                    continue;
+                if (unreached == INFINITY)
+                    relaxWide(dist, next, i*n, k*n, jStart, jEnd, dik,
+                            next[i*n + k]);
+                else if (kernel != null)
+                    kernel.relax(dist, next, i*n, k*n, jStart, jEnd, dik,
+                            next[i*n + k]);
+                else
+                    relax(dist, next, i*n, k*n, jStart, jEnd, dik,
+                            next[i*n + k]);
+            }
+        }
+    }
+
+    /**
+     * scalar MinPlus: row i through node k over columns [from, to)
+     */
+    static void relax(int[] dist, int[] next, int i, int k, int from,
+            int to, int dik, int nik) {
+        for (int j=from; j<to; j++) {
+            int d = dik + dist[k + j];
+            if (d < dist[i + j]) {
+                dist[i + j] = d;
+                next[i + j] = nik;
+            }
+        }
+    }
+
+    /**
+     * relax() for when a path may be UNREACHED or longer: missing paths
+     * are INFINITY and the sums are in long
+     */
+    static void relaxWide(int[] dist, int[] next, int i, int k, int from,
+            int to, int dik, int nik) {
+        for (int j=from; j<to; j++) {
+            int dkj = dist[k + j];
+            if (dkj == INFINITY)
+                continue;
+            long d = (long)dik + dkj;
+            if (d < dist[i + j]) {
+                dist[i + j] = (int)d;
+                next[i + j] = nik;
+            }
         }
+    }
+
+    private static MinPlus loadKernel() {
+        try {
+            return (MinPlus)Class.forName("VectorMinPlus")
+                .getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Relaxes a range of tiles of one phase, splitting it in halves.
+     */
+    class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        int[] tiles;
+        int lo, hi, nb, kb;
 
+        TileTask(int[] tiles, int lo, int hi, int nb, int kb) {
+            this.tiles = tiles;
+            this.lo = lo;
+            this.hi = hi;
+            this.nb = nb;
+            this.kb = kb;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                relaxTile(tiles[lo] / nb, tiles[lo] % nb, kb);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new TileTask(tiles, lo, mid, nb, kb),
+                    new TileTask(tiles, mid, hi, nb, kb));
+        }
+    }
+
+    /**
+     * the textbook triple loop, to check against
+     */
+    static int[][] classic(AdjacencyList graph) {
+        int n = graph.getNodeList().size();
+        int[][] d = new int[n][n];
+        for (int i=0; i<n; i++)
+            Arrays.fill(d[i], INFINITY);
+        for (Edge e : graph.getAllEdges()) {
+            int i = graph.getNodeIndex(e.from);
+            int j = graph.getNodeIndex(e.to);
+            d[i][j] = Math.min(d[i][j], e.weight);
+        }
         for (int k=0; k<n; k++) {
-           for (int i=0; i<n; i++) {
-               for (int j=0; j<n; j++) {
-                   if (D[i][k] != INFINITY && D[k][j] != INFINITY &&
-                         D[i][k]+D[k][j] < D[i][j]) {
-                       D[i][j] = D[i][k]+D[k][j];
-                       P[i][j] = graph.getNode(k);
-                   }
-               }
-           }
+            for (int i=0; i<n; i++) {
+                for (int j=0; j<n; j++) {
+                    if (d[i][k] != INFINITY && d[k][j] != INFINITY &&
+                            d[i][k]+d[k][j] < d[i][j])
+                        d[i][j] = d[i][k]+d[k][j];
+                }
+            }
         }
+        return d;
+    }
+
+    /**
+     * a random graph: a cycle through all n nodes, plus 4n random edges
+     */
+    static AdjacencyList randomGraph(int n, long seed) {
+        Random random = new Random(seed);
+        AdjacencyList graph = new AdjacencyList();
+        Node[] nodes = new Node[n];
+        for (int i=0; i<n; i++)
+            nodes[i] = new Node(i + 1);
+        int name = 0;
+        for (int i=0; i<n; i++)
+            graph.addEdge(++name, nodes[i], nodes[(i + 1) % n],
+                    1000 + random.nextInt(2000));
+        for (int k=0; k<4*n; k++) {
+            int i = random.nextInt(n), j = random.nextInt(n);
+            if (i != j && graph.getEdge(nodes[i], nodes[j]) == null)
+                graph.addEdge(++name, nodes[i], nodes[j],
+                        1000 + random.nextInt(2000));
+        }
+        return graph;
     }
-}
 
+    /**
+     * Scaling benchmark on random graphs: best of RUNS seconds for the
+     * classic loop (up to n = 1000), and for the blocked one, scalar and
+     * with the kernel if there is one.
+     */
+    public static void main(String[] args) {
+        int threads = 1;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        int[] sizes = { 20, 50, 100, 200, 500, 1000, 2000, 4000 };
+        if (args.length > first) {
+            sizes = new int[args.length - first];
+            for (int i=first; i<args.length; i++)
+                sizes[i-first] = Integer.parseInt(args[i]);
+        }
+        System.out.println("kernel: " + ((KERNEL == null) ? "scalar" :
+                KERNEL.getClass().getName()) + ", threads: " + threads);
+        System.out.println("n\tclassic\tblocked\tkernel");
+        for (int n : sizes) {
+            AdjacencyList graph = randomGraph(n, n);
+            String line = n + "\t";
+            int[][] reference = null;
+            if (n <= 1000) {
+                double best = Double.MAX_VALUE;
+                for (int run=0; run<RUNS; run++) {
+                    long start = System.nanoTime();
+                    reference = classic(graph);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                }
+                line += best;
+            } else {
+                line += "-";
+            }
+            for (int pass=0; pass<2; pass++) {
+                if (pass == 1 && KERNEL == null) {
+                    line += "\t-";
+                    continue;
+                }
+                double best = Double.MAX_VALUE;
+                FloydWarshall fw = null;
+                for (int run=0; run<RUNS; run++) {
+                    fw = new FloydWarshall(graph);
+                    fw.setThreads(threads);
+                    if (pass == 0)
+                        fw.setScalar();
+                    long start = System.nanoTime();
+                    fw.getDistances();
+                    best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                }
+                line += "\t" + best;
+                if (reference != null &&
+                        !Arrays.deepEquals(reference, fw.getMatrix()))
+                    line += " MISMATCH";
+            }
+            System.out.println(line);
+        }
+    }
+}
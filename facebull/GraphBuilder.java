@@ -0,0 +1,221 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds a graph from a whole price list at once, in O(e log e), where
+ * AdjacencyList.addEdge() scans the edges out of a node for a parallel
+ * one and insertion sorts, O(e * degree) over a load.
+ *
+ * Edges go into int arrays as they come.  A LongIntMap on (from, to)
+ * keeps only the cheapest of parallel machines, the first of equal ones,
+ * as addEdge() does; a cheaper one takes a new slot so that it ranks as
+ * added last.  At the end the slots are dealt out to rows by tail and by
+ * head, and each row is sorted once, by weight, then by slot.
+ * The result has the same node indexes and the same edge order as the
+ * same addEdge() calls would give.
+ */
+public class GraphBuilder {
+    int nNodes;
+    Node[] nodes;
+    LongIntMap nodeIndex;       // node name to index
+
+    int nSlots;
+    int nEdges;                 // slots still in use
+    int[] edgeName;
+    int[] edgeFrom;             // node indexes
+    int[] edgeTo;
+    int[] edgeWeight;
+    boolean[] dropped;          // beaten by a cheaper parallel edge
+    LongIntMap edgeSlot;        // from << 32 | to to slot
+
+    public GraphBuilder() {
+        this(1024);
+    }
+
+    /**
+     * @param expected  the number of edges to make room for
+     */
+    public GraphBuilder(int expected) {
+        expected = Math.max(16, expected);
+        nodes = new Node[16];
+        nodeIndex = new LongIntMap(16);
+        edgeName = new int[expected];
+        edgeFrom = new int[expected];
+        edgeTo = new int[expected];
+        edgeWeight = new int[expected];
+        dropped = new boolean[expected];
+        edgeSlot = new LongIntMap(expected);
+    }
+
+    /**
+     * Add edge name from node fromName to node toName, nodes by their
+     * names as in the price list.
+     */
+    public void addEdge(int name, int fromName, int toName, int weight) {
+        int from = addNode(fromName);
+        int to = addNode(toName);
+        long key = (long)from << 32 | to;
+        int old = edgeSlot.get(key);
+        if (old >= 0) {
+            if (edgeWeight[old] <= weight)
+                return;
+            dropped[old] = true;
+            nEdges--;
+        }
+        if (nSlots == edgeName.length)
+            grow();
+        edgeName[nSlots] = name;
+        edgeFrom[nSlots] = from;
+        edgeTo[nSlots] = to;
+        edgeWeight[nSlots] = weight;
+        edgeSlot.put(key, nSlots);
+        nSlots++;
+        nEdges++;
+    }
+
+    public int getNodeCount() {
+        return nNodes;
+    }
+
+    public int getEdgeCount() {
+        return nEdges;
+    }
+
+    public GraphSnapshot toSnapshot() {
+        int[] outStart = new int[nNodes + 1];
+        int[] inStart = new int[nNodes + 1];
+        for (int s=0; s<nSlots; s++) {
+            if (!dropped[s]) {
+                outStart[edgeFrom[s] + 1]++;
+                inStart[edgeTo[s] + 1]++;
+            }
+        }
+        for (int u=0; u<nNodes; u++) {
+            outStart[u+1] += outStart[u];
+            inStart[u+1] += inStart[u];
+        }
+
+        // each row by weight, then by slot
+        long[] outKeys = new long[nEdges];
+        long[] inKeys = new long[nEdges];
+        int[] outFill = Arrays.copyOf(outStart, nNodes);
+        int[] inFill = Arrays.copyOf(inStart, nNodes);
+        for (int s=0; s<nSlots; s++) {
+            if (!dropped[s]) {
+                long key = (long)edgeWeight[s] << 32 | s;
+                outKeys[outFill[edgeFrom[s]]++] = key;
+                inKeys[inFill[edgeTo[s]]++] = key;
+            }
+        }
+        for (int u=0; u<nNodes; u++) {
+            Arrays.sort(outKeys, outStart[u], outStart[u+1]);
+            Arrays.sort(inKeys, inStart[u], inStart[u+1]);
+        }
+
+        int[] outSource = new int[nEdges];
+        int[] outTarget = new int[nEdges];
+        int[] outWeight = new int[nEdges];
+        int[] outName = new int[nEdges];
+        Edge[] edges = new Edge[nEdges];
+        int[] arc = new int[nSlots];
+        for (int a=0; a<nEdges; a++) {
+            int s = (int)outKeys[a];
+            int u = edgeFrom[s];
+            int v = edgeTo[s];
+            outSource[a] = u;
+            outTarget[a] = v;
+            outWeight[a] = edgeWeight[s];
+            outName[a] = edgeName[s];
+            edges[a] = new Edge(edgeName[s], nodes[u], nodes[v],
+                    edgeWeight[s]);
+            arc[s] = a;
+        }
+        int[] inArc = new int[nEdges];
+        for (int i=0; i<nEdges; i++)
+            inArc[i] = arc[(int)inKeys[i]];
+        return new GraphSnapshot(Arrays.copyOf(nodes, nNodes), outStart,
+                outSource, outTarget, outWeight, outName, edges, inStart,
+                inArc);
+    }
+
+    /**
+     * @return  a new AdjacencyList with the edges, which starts out with
+     *          its snapshot already made
+     */
+    public AdjacencyList toAdjacencyList() {
+        return new AdjacencyList(toSnapshot());
+    }
+
+    private int addNode(int name) {
+        int u = nodeIndex.get(name);
+        if (u < 0) {
+            if (nNodes == nodes.length)
+                nodes = Arrays.copyOf(nodes, 2 * nNodes);
+            u = nNodes++;
+            nodes[u] = new Node(name);
+            nodeIndex.put(name, u);
+        }
+        return u;
+    }
+
+    private void grow() {
+        int size = 2 * nSlots;
+        edgeName = Arrays.copyOf(edgeName, size);
+        edgeFrom = Arrays.copyOf(edgeFrom, size);
+        edgeTo = Arrays.copyOf(edgeTo, size);
+        edgeWeight = Arrays.copyOf(edgeWeight, size);
+        dropped = Arrays.copyOf(dropped, size);
+    }
+
+    /**
+     * Compare with AdjacencyList.addEdge() on random price lists: seconds
+     * to build each way.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: GraphBuilder nodes edges [-a]");
+            System.out.println(
+                "\t-a also time AdjacencyList.addEdge(), which is slow");
+            return;
+        }
+        int n = Integer.parseInt(args[0]);
+        int m = Integer.parseInt(args[1]);
+        boolean both = args.length > 2 && args[2].equals("-a");
+        Random random = new Random(1);
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] weight = new int[m];
+        for (int i=0; i<m; i++) {
+            from[i] = random.nextInt(n) + 1;
+            to[i] = random.nextInt(n) + 1;
+            weight[i] = random.nextInt(1000000);
+        }
+
+        long start = System.nanoTime();
+        GraphBuilder builder = new GraphBuilder(m);
+        for (int i=0; i<m; i++)
+            builder.addEdge(i + 1, from[i], to[i], weight[i]);
+        AdjacencyList graph = builder.toAdjacencyList();
+        double t1 = (System.nanoTime() - start) / 1e9;
+        System.out.println("GraphBuilder: " + t1 + "s, " +
+                graph.getNodeList().size() + " nodes, " +
+                builder.getEdgeCount() + " edges");
+        if (!both)
+            return;
+
+        start = System.nanoTime();
+        AdjacencyList slow = new AdjacencyList();
+        Node[] node = new Node[n + 1];
+        for (int i=0; i<m; i++) {
+            if (node[from[i]] == null)
+                node[from[i]] = new Node(from[i]);
+            if (node[to[i]] == null)
+                node[to[i]] = new Node(to[i]);
+            slow.addEdge(i + 1, node[from[i]], node[to[i]], weight[i]);
+        }
+        double t2 = (System.nanoTime() - start) / 1e9;
+        System.out.println("addEdge: " + t2 + "s, " +
+                slow.getNodeList().size() + " nodes, " +
+                slow.getAllEdges().size() + " edges");
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An immutable copy of an AdjacencyList in compressed sparse rows, for
+ * solvers that want flat arrays instead of HashMaps of Edge lists, and
+ * for several solvers on one graph at once.
+ *
+ * The edges are numbered 0..m-1 as arcs, by tail, and cheapest first
+ * within a tail (ties in the order they were added).  The arcs out of u
+ * are outStart[u] .. outStart[u+1]-1, with their heads, weights, names
+ * and Edge objects in the parallel arrays.  The arcs into v are
+ * inStart[v] .. inStart[v+1]-1 of inArc, also cheapest first (ties by
+ * arc, or in the order added from a GraphBuilder).
+ *
+ * Nothing here changes after construction, and nothing here touches the
+ * visited or index fields of Node and Edge: a solver keeps its scratch
+ * state in its own arrays, indexed by node or arc.
+ */
+public class GraphSnapshot {
+    final int nNodes;
+    final int nEdges;
+    final Node[] nodes;
+
+    final int[] outStart;
+    final int[] outSource;      // tail of each arc
+    final int[] outTarget;
+    final int[] outWeight;
+    final int[] outName;
+    final Edge[] edges;
+
+    final int[] inStart;
+    final int[] inArc;          // the arcs into each node
+    final int[] inSource;
+    final int[] inWeight;
+    final int[] inName;
+
+    /**
+     * one pass over the edge lists, which AdjacencyList keeps cheapest
+     * first, then the arcs into each node by one sort of the arcs by
+     * weight
+     */
+    public GraphSnapshot(AdjacencyList graph) {
+        ArrayList<Node> nodeList = graph.getNodeList();
+        nNodes = nodeList.size();
+        nodes = nodeList.toArray(new Node[nNodes]);
+        int m = 0;
+        for (Node n : nodes)
+            m += graph.getOutEdges(n).size();
+        nEdges = m;
+
+        outStart = new int[nNodes + 1];
+        outSource = new int[nEdges];
+        outTarget = new int[nEdges];
+        outWeight = new int[nEdges];
+        outName = new int[nEdges];
+        edges = new Edge[nEdges];
+        inStart = new int[nNodes + 1];
+        long[] keys = new long[nEdges];
+        int a = 0;
+        for (int u=0; u<nNodes; u++) {
+            for (Edge e : graph.getOutEdges(nodes[u])) {
+                int v = graph.getNodeIndex(e.to);
+                outSource[a] = u;
+                outTarget[a] = v;
+                outWeight[a] = e.weight;
+                outName[a] = e.name;
+                edges[a] = e;
+                keys[a] = (long)e.weight << 32 | a;
+                inStart[v + 1]++;
+                a++;
+            }
+            outStart[u+1] = a;
+        }
+
+        for (int v=0; v<nNodes; v++)
+            inStart[v+1] += inStart[v];
+        Arrays.sort(keys);
+        inArc = new int[nEdges];
+        inSource = new int[nEdges];
+        inWeight = new int[nEdges];
+        inName = new int[nEdges];
+        int[] inFill = Arrays.copyOf(inStart, nNodes);
+        for (long key : keys) {
+            a = (int)key;
+            int i = inFill[outTarget[a]]++;
+            inArc[i] = a;
+            inSource[i] = outSource[a];
+            inWeight[i] = outWeight[a];
+            inName[i] = outName[a];
+        }
+    }
+
+    /**
+     * rows made by GraphBuilder; the arrays become the snapshot's
+     */
+    GraphSnapshot(Node[] nodes, int[] outStart, int[] outSource,
+            int[] outTarget, int[] outWeight, int[] outName, Edge[] edges,
+            int[] inStart, int[] inArc) {
+        this.nodes = nodes;
+        nNodes = nodes.length;
+        nEdges = edges.length;
+        this.outStart = outStart;
+        this.outSource = outSource;
+        this.outTarget = outTarget;
+        this.outWeight = outWeight;
+        this.outName = outName;
+        this.edges = edges;
+        this.inStart = inStart;
+        this.inArc = inArc;
+        inSource = new int[nEdges];
+        inWeight = new int[nEdges];
+        inName = new int[nEdges];
+        for (int i=0; i<nEdges; i++) {
+            int a = inArc[i];
+            inSource[i] = outSource[a];
+            inWeight[i] = outWeight[a];
+            inName[i] = outName[a];
+        }
+    }
+
+    public int getNodeCount() {
+        return nNodes;
+    }
+
+    public int getEdgeCount() {
+        return nEdges;
+    }
+
+    public Node getNode(int u) {
+        return nodes[u];
+    }
+
+    public Edge getEdge(int arc) {
+        return edges[arc];
+    }
+
+    /**
+     * @return  the arc from u to v, or -1
+     */
+    public int findArc(int u, int v) {
+        for (int a=outStart[u]; a<outStart[u+1]; a++) {
+            if (outTarget[a] == v)
+                return a;
+        }
+        return -1;
+    }
+
+    /**
+     * @return  true if every node reaches node 0 and is reached from it,
+     *          using only scratch arrays of its own
+     */
+    public boolean isStronglyConnected() {
+        if (nNodes == 0)
+            return true;
+        int[] queue = new int[nNodes];
+        boolean[] seen = new boolean[nNodes];
+        for (int pass=0; pass<2; pass++) {
+            Arrays.fill(seen, false);
+            int head = 0, tail = 0;
+            queue[tail++] = 0;
+            seen[0] = true;
+            int[] start = (pass == 0) ? outStart : inStart;
+            int[] other = (pass == 0) ? outTarget : inSource;
+            while (head < tail) {
+                int u = queue[head++];
+                for (int k=start[u]; k<start[u+1]; k++) {
+                    int v = other[k];
+                    if (!seen[v]) {
+                        seen[v] = true;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+            if (tail < nNodes)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return  the edges of the given arcs
+     */
+    public ArrayList<Edge> getEdges(int[] arcs, int count) {
+        ArrayList<Edge> list = new ArrayList<Edge>(count);
+        for (int k=0; k<count; k++)
+            list.add(edges[arcs[k]]);
+        return list;
+    }
+}
@@ -1,42 +1,148 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
- * Algorithm k-invert:
- * Start with any random order.  reverse the order of k consecutive nodes in
- * the path.  If it's an improvement keep it, otherwise discard.  Repeat.
- * 
+ * Algorithm k-permute:
+ * Start with a random order of all the nodes.  Draw k positions at
+ * random, try every arrangement of the nodes in them, and keep the best
+ * if it costs no more than the path did; equal moves are kept too, since
+ * the cost has wide plateaus.  After 10000 draws without a strict gain,
+ * go on to the next k in the list.
+ *
+ * A path is scored by EdgeUnion, the weight of the distinct edges on its
+ * shortest paths, which is what the answer costs.  That scores a single
+ * run worse than summing the shortest distances does on a few tests (38
+ * optimal of 80, against 39, after EdgeSetSearch) but better overall
+ * (30373 over the optima in all, against 35530), and better on both
+ * counts with 8 starts (56 against 54; 5828 against 9554).
+ *
+ * solve(klist, starts, threads) runs several independent climbs in
+ * parallel, each with its own random stream, and keeps the best.
  */
 public class Kpermute {
 
     private AdjacencyList graph;
-    private Random random = new Random(FloydWarshall.INFINITY);
+    private long seed = FloydWarshall.INFINITY;
+    private SplittableRandom random = new SplittableRandom(seed);
     private int nNodes;
 
     public Kpermute(AdjacencyList g) {
 	graph = g;
     }
 
+    /**
+     * Set the master seed.  Each climb gets its own stream split from it,
+     * so a run is reproducible for a given seed and number of starts,
+     * whatever the number of threads.
+     */
+    public void setSeed(long s) {
+        seed = s;
+        random = new SplittableRandom(seed);
+    }
+
     public ArrayList<Edge> solve(ArrayList<Integer> klist) {
-        ArrayList<Node> nodeList = graph.getSortedNodeList();
-        nNodes = nodeList.size();
-        ArrayList<Edge> edges;
+        nNodes = graph.getNodeList().size();
+        EdgeUnion union = new EdgeUnion(graph, graph.getDistanceOracle());
+        graph.clearVisited();
+        int[] path = climb(union, new ArrayList<Integer>(klist), random);
+        union.setTour(path);
+        return union.getEdges();
+    }
+
+    /**
+     * Run starts independent climbs on a pool of threads and return the
+     * best.  The climbs share one DistanceOracle; with Dijkstra, a row is
+     * computed by the first climb asking for it.  Ties go to the lowest
+     * numbered climb.
+     */
+    public ArrayList<Edge> solve(final ArrayList<Integer> klist, int starts,
+            int threads) {
+        nNodes = graph.getNodeList().size();
+        DistanceOracle oracle = graph.getDistanceOracle();
+        // whatever the oracle builds on first use (all of a FloydWarshall
+        // matrix, one Dijkstra row) before the climbs ask for it
+        if (nNodes > 0)
+            oracle.getShortestDistance(0, 0);
+        final EdgeUnion union = new EdgeUnion(graph, oracle);
+        graph.clearVisited();
+
+        SplittableRandom master = new SplittableRandom(seed);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        ArrayList<ForkJoinTask<int[]>> climbs =
+            new ArrayList<ForkJoinTask<int[]>>();
+        for (int i=0; i<starts; i++) {
+            final SplittableRandom stream = master.split();
+            climbs.add(pool.submit(new Callable<int[]>() {
+                public int[] call() {
+                    return climb(new EdgeUnion(union),
+                            new ArrayList<Integer>(klist), stream);
+                }
+            }));
+        }
+        int[] best = null;
+        long minWeight = Long.MAX_VALUE;
+        for (ForkJoinTask<int[]> c : climbs) {
+            int[] path = c.join();
+            long w = union.setTour(path);
+            Debug.println(2, "climb weight = " + w);
+            if (w < minWeight) {
+                minWeight = w;
+                best = path;
+            }
+        }
+        pool.shutdown();
+        if (best == null)
+            return null;
+        union.setTour(best);
+        return union.getEdges();
+    }
+
+    /**
+     * One hill-climb from a random tour, drawing from rnd, with k-permute
+     * moves for each k in klist (which is consumed), scored by union.
+     *
+     * The arrangements of the K drawn positions are walked in
+     * PermutationGenerator's order, where each differs from the last by
+     * one swap, so only the legs next to the two swapped positions change
+     * in the union.  The walk then goes back to the best arrangement, if
+     * it is at least as good as the tour was.  The loop allocates
+     * nothing.
+     */
+    private int[] climb(EdgeUnion union, ArrayList<Integer> klist,
+            SplittableRandom rnd) {
+        int n = nNodes;
         int count = 0;
         final int limit = 10000;
         int K = 0;
+        int[] swapTable = null;
 
-        FloydWarshall fw = new FloydWarshall(graph);
-        graph.clearVisited();
-
-        int[] path = new int[nNodes];
-        path = getRandomPath(nNodes);
-        int minWeight = getWeight(fw, path);
-        int[] newPath = null;
-        Debug.println(2, "initial weight = " + getWeight(fw, path));
+        int[] path = getRandomPath(n, rnd);
+        long minWeight = union.setTour(path);
+        Debug.println(2, "initial weight = " + minWeight);
         printPath(path);
 
+        // scratch space: the identity to draw positions from, the drawn
+        // positions, and the nodes in them at the start and at the best
+        // arrangement
+        int maxK = 0;
+        for (int k : klist)
+            maxK = Math.max(maxK, Math.min(k, n));
+        int[] shuffle = new int[n];
+        for (int i=0; i<n; i++)
+            shuffle[i] = i;
+        int[] swaps = new int[maxK];
+        int[] nodes = new int[maxK];
+        int[] start = new int[maxK];
+        int[] best = new int[maxK];
+
         count = limit+1;
         while (true) {
             if (count++ > limit) {
@@ -44,69 +150,91 @@ public class Kpermute {
                     break;
                 K = klist.get(0);
                 klist.remove(0);
-                if (K > nNodes)
+                if (K > n)
                     continue;
+                swapTable = PermutationGenerator.getSwapTable(K);
                 count = 0;
                 Debug.println(2, "K = " + K);
             }
 
-            int[] nodes = getRandomNodes(nNodes, K);
-            if (Debug.getLevel() > 2) {
-                Debug.print(3, "permuting nodes: ");
-                printPath(nodes);
-            }
-
-            PermutationGenerator pg = new PermutationGenerator(K);
-            pg.getNext();           // skip first one
-            while (pg.hasMore()) {
-                int[] indices = pg.getNext();
-                newPath = permutePath(path, nodes, indices, K);
-                if (Debug.getLevel() > 2) {
-                    Debug.print(3, "trying path: ");
-                    printPath(newPath);
-                    Debug.print(3, "indices: ");
-                    printPath(indices);
+            getRandomNodes(shuffle, K, nodes, swaps, rnd);
+            for (int i=0; i<K; i++)
+                start[i] = path[nodes[i]];
+            long bestWeight = Long.MAX_VALUE;
+            for (int s=0; s<swapTable.length; s+=2) {
+                swap(union, path, nodes[swapTable[s]], nodes[swapTable[s+1]]);
+                long w = union.getCost();
+                if (w < bestWeight) {
+                    bestWeight = w;
+                    for (int i=0; i<K; i++)
+                        best[i] = path[nodes[i]];
                 }
+            }
 
-                int w = getWeight(fw, newPath);
-                if (minWeight > w) {
-                    minWeight = w;
-                    Debug.println(2, "better weight = " + minWeight);
-                    Debug.print(2, "path: ");
-                    printPath(path);
-                    path = newPath;
-                    count = 0;
+            // equal moves are taken too: many paths share the same edges,
+            // so the cost has wide plateaus
+            int[] keep = (bestWeight <= minWeight) ? best : start;
+            for (int i=0; i<K; i++) {
+                int p = nodes[i];
+                if (path[p] != keep[i]) {
+                    int q = p;
+                    for (int j=i+1; path[q] != keep[i]; j++)
+                        q = nodes[j];
+                    swap(union, path, p, q);
                 }
             }
+            if (bestWeight < minWeight) {
+                Debug.println(2, "better weight = " + bestWeight);
+                Debug.print(2, "path: ");
+                printPath(path);
+                count = 0;
+            }
+            if (bestWeight <= minWeight)
+                minWeight = bestWeight;
         }
-        edges = getEdges(fw, path);
-        return edges;
+        return path;
     }
 
-    public boolean visitedAllNodes(ArrayList<Edge> path) {
-        Set<Node> visitedNodeSet = new HashSet<Node>();
-        for (Edge e : path) {
-            visitedNodeSet.add(e.from);
-        }
-        return (visitedNodeSet.size() == nNodes);
+    /**
+     * swap the nodes at positions p and q of path, moving the legs next
+     * to them in union
+     */
+    private void swap(EdgeUnion union, int[] path, int p, int q) {
+        int n = nNodes;
+        int p0 = (p == 0) ? n-1 : p-1;
+        int q0 = (q == 0) ? n-1 : q-1;
+        int p1 = (p == n-1) ? 0 : p+1;
+        int q1 = (q == n-1) ? 0 : q+1;
+        // legs by start position: p0, p, q0, q, with repeats when p and q
+        // are next to each other
+        union.removeLeg(path[p0], path[p]);
+        union.removeLeg(path[p], path[p1]);
+        if (q0 != p)
+            union.removeLeg(path[q0], path[q]);
+        if (q != p0)
+            union.removeLeg(path[q], path[q1]);
+        int t = path[p];
+        path[p] = path[q];
+        path[q] = t;
+        union.addLeg(path[p0], path[p]);
+        union.addLeg(path[p], path[p1]);
+        if (q0 != p)
+            union.addLeg(path[q0], path[q]);
+        if (q != p0)
+            union.addLeg(path[q], path[q1]);
     }
 
-    public ArrayList<Edge> getEdges(FloydWarshall fw, int[] path) {
+    public ArrayList<Edge> getEdges(DistanceOracle oracle, int[] path) {
         Set<Edge> edgeSet = new HashSet<Edge>();
-        ArrayList<Node> pathNodes = new ArrayList<Node>();
-        Node n = graph.getNode(path[0]);
-        pathNodes.add(graph.getNode(path[0]));
+        Edge[] leg = new Edge[graph.getNodeList().size()];
         for (int i=0; i<path.length; i++) {
             int to = i+1;
             if (i == (path.length - 1))
                 to = 0;
-            ArrayList<Node> nodes = fw.getShortestPath(path[i], path[to]);
-            nodes.remove(0);
-            pathNodes.addAll(nodes);
-        }
-
-        for (int i=0; i<pathNodes.size()-1; i++){
-            edgeSet.add(graph.getEdge(pathNodes.get(i), pathNodes.get(i+1)));
+            int length = oracle.getShortestPathEdges(path[i], path[to],
+                    leg);
+            for (int k=0; k<length; k++)
+                edgeSet.add(leg[k]);
         }
         return new ArrayList<Edge>(edgeSet);
     }
@@ -118,49 +246,34 @@ public class Kpermute {
         return w;
     }
 
-    public int getWeight(FloydWarshall fw, int[] path) {
-        int w = 0;
-        for (int i=0; i<path.length-1; i++){
-            w += fw.getShortestDistance(path[i], path[i+1]);
+    /**
+     * k distinct random nodes into b, drawing from a, which must hold the
+     * identity and is left that way: the swaps (kept in swaps) are undone,
+     * O(k)
+     */
+    private void getRandomNodes(int[] a, int k, int[] b, int[] swaps,
+            SplittableRandom random) {
+        int n = a.length;
+        for (int t=0; t<k; t++) {
+            int i = random.nextInt(n--);
+            swaps[t] = i;
+            int j = a[i];
+            a[i] = a[n];
+            a[n] = j;
         }
-        w += fw.getShortestDistance(path[path.length-1], path[0]);
-        return w;
-    }
-
-    public int[] permutePath(int[] path, int[] nodes, int[] perm, int k) {
-        int n = path.length;
-        int p[] = new int[n];
-        System.arraycopy(path, 0, p, 0, n);
-        if (k > n)
-            k = n;
-        for (int i=0; i<k; i++) {
-            p[nodes[i]] = path[nodes[perm[i]]];
+        System.arraycopy(a, n, b, 0, k);
+        for (int t=k-1; t>=0; t--, n++) {
+            int j = a[swaps[t]];
+            a[swaps[t]] = a[n];
+            a[n] = j;
         }
-        return p;
     }
 
-    public int[] getRandomNodes(int n, int k) {
-        int a[] = new int[n];
-        for (int i=0; i<n; i++)
-            a[i] = i;
-        if (k > n)
-            k = n;
-        int m = k;
-        int b[] = new int[k];
-        while (k-- > 0) {
-             int i = random.nextInt(n--);
-             int j = a[i];
-             a[i] = a[n];
-             a[n] = j;
-        }
-        k = 0;
-        while (k < m) {
-            b[k++] = a[n++];
-        }
-        return b;
+    public int[] getRandomPath(int n) {
+        return getRandomPath(n, random);
     }
 
-    public int[] getRandomPath(int n) {
+    private int[] getRandomPath(int n, SplittableRandom random) {
         int a[] = new int[n];
         for (int i=0; i<n; i++)
             a[i] = i;
@@ -183,21 +296,68 @@ public class Kpermute {
 
     public static void main(String[] args) {
         Debug.setLevel(1);
-	if (args.length < 1) {
-	    System.out.println("Usage: Kpermute <inputfile> ...");
+        int threads = 1;
+        int starts = 0;
+        long seed = FloydWarshall.INFINITY;
+        String matrices = null;
+        int first = 0;
+        while (args.length > first + 1 && args[first].startsWith("-")) {
+            if (args[first].equals("-t"))
+                threads = Integer.parseInt(args[first+1]);
+            else if (args[first].equals("-n"))
+                starts = Integer.parseInt(args[first+1]);
+            else if (args[first].equals("-seed"))
+                seed = Long.parseLong(args[first+1]);
+            else if (args[first].equals("-m"))
+                matrices = args[first+1];
+            else
+                break;
+            first += 2;
+        }
+	if (args.length <= first) {
+	    System.out.println("Usage: Kpermute [-t threads] [-n starts] [-seed seed] [-m matrixdir] <inputfile> ...");
 	    return;
 	}
 
-        for (int i=0; i<args.length; i++) {
+        for (int i=first; i<args.length; i++) {
             String file = args[i];
             Debug.println("\nfile: " + file);
             AdjacencyList graph = Facebull.loadFile(file);
-            Debug.println(2, "lower bound = " + graph.getCircuitLowerBound());
+            if (Debug.isOn())
+                Debug.println(2, "lower bound = " +
+                        graph.getCircuitLowerBound());
+            MappedDistances md = null;
+            if (matrices != null) {
+                // shortest paths kept in matrixdir/<inputfile>.apsp
+                Path path = Paths.get(matrices,
+                        Paths.get(file).getFileName() + ".apsp");
+                try {
+                    md = MappedDistances.load(graph, path, threads);
+                    graph.setDistanceOracle(md);
+                } catch (IOException e) {
+                    System.out.println("Unable to use matrix file:" + path);
+                }
+            }
             Kpermute solver = new Kpermute(graph);
+            solver.setSeed(seed);
             ArrayList<Integer> klist = new ArrayList<Integer>()
                 {{ add(5); add(4); add(3); add(2); }};
-            ArrayList<Edge> edges = solver.solve(klist);
+            ArrayList<Edge> edges;
+            if (starts > 0) {
+                long start = System.currentTimeMillis();
+                edges = solver.solve(klist, starts, threads);
+                double t = (System.currentTimeMillis() - start)/1000.0;
+                Debug.println("elapsed time = " + t);
+                Debug.println("starts/sec = " + (int)(starts / Math.max(t, 0.001)));
+            } else {
+                edges = solver.solve(klist);
+            }
+            EdgeSetSearch search = new EdgeSetSearch(graph);
+            edges = search.improve(edges);
+            Debug.println("recovered = " + search.getRecovered());
             Facebull.printSolution(edges);
+            if (md != null)
+                md.close();
         }
     }
 }
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from long to int on two arrays, with open addressing and
+ * linear probing, so no boxing and no entry objects.  Keys are any long
+ * but Long.MIN_VALUE, which marks a free slot; values are never negative,
+ * and get() returns -1 for a missing key.
+ */
+public class LongIntMap {
+    static final long FREE = Long.MIN_VALUE;
+
+    long[] keys;
+    int[] values;
+    int mask;
+    int size;
+
+    public LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2) * 2;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  the value of key, or -1
+     */
+    public int get(long key) {
+        int i = slot(key);
+        return (keys[i] == FREE) ? -1 : values[i];
+    }
+
+    public void put(long key, int value) {
+        int i = slot(key);
+        if (keys[i] == FREE) {
+            keys[i] = key;
+            size++;
+            values[i] = value;
+            if (2 * size > keys.length)
+                grow();
+            return;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * @return  the slot holding key, or the free one where it would go
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int i = (int)(h ^ (h >>> 32)) & mask;
+        while (keys[i] != key && keys[i] != FREE)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[2 * oldKeys.length];
+        values = new int[2 * oldKeys.length];
+        Arrays.fill(keys, FREE);
+        mask = keys.length - 1;
+        for (int i=0; i<oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
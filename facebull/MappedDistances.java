@@ -0,0 +1,439 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * All pairs shortest paths kept in a memory-mapped file instead of the
+ * heap, for graphs too big for n^2 ints of it.  The file can be opened
+ * again by a later run on the same graph without recomputing.
+ *
+ * Two row-major matrices follow a header: the distances, and the node
+ * before each on the path from the row's source, so a path is read
+ * backwards along one row.  Each takes 16 bits an entry when its bound
+ * fits, and 32 otherwise; the top value stands for INFINITY or none.
+ * The bound is n for the nodes, and n times the heaviest edge for the
+ * distances, since a circuit can have n edges.
+ *
+ * The rows come from one Dijkstra per source, on create()'s threads,
+ * written as they are done, so the heap only holds a row per worker.  A
+ * MappedByteBuffer is at most 2GB, so the file is mapped in chunks of
+ * whole rows.  close() unmaps them at once, rather than whenever the
+ * buffers are collected, so the file can be removed or rewritten.
+ *
+ * The header has the graph's fingerprint, and open() refuses a file
+ * made from another graph.  The matrix doesn't follow edge changes: after
+ * one, queries throw IllegalStateException.
+ */
+public class MappedDistances implements DistanceOracle, Closeable {
+    static final int MAGIC = 0x4642444d;        // "FBDM"
+    static final int FORMAT = 1;
+    static final int HEADER = 64;
+    static final long CHUNK = 1L << 30;         // bytes per mapping, at most
+
+    AdjacencyList graph;
+    int nNodes;
+    int distWidth;              // bytes per entry, 2 or 4
+    int predWidth;
+    int rowsPerChunk;
+    MappedByteBuffer[] distChunks;
+    MappedByteBuffer[] predChunks;
+    boolean stale = false;
+
+    // edges out of each node, by head, for the edges of a path
+    int[] first;
+    int[] head;
+    Edge[] arcs;
+
+    private MappedDistances(AdjacencyList g, int distWidth, int predWidth) {
+        graph = g;
+        nNodes = graph.getNodeList().size();
+        this.distWidth = distWidth;
+        this.predWidth = predWidth;
+        long rowBytes = (long)nNodes * Math.max(distWidth, predWidth);
+        rowsPerChunk =
+            (int)Math.max(1, Math.min(nNodes, CHUNK / Math.max(1, rowBytes)));
+    }
+
+    /**
+     * Compute the shortest paths of graph into file, replacing it.
+     */
+    public static MappedDistances create(AdjacencyList graph, Path file,
+            int threads) throws IOException {
+        int n = graph.getNodeList().size();
+        long maxWeight = 0;
+        for (Edge e : graph.getAllEdges())
+            maxWeight = Math.max(maxWeight, e.weight);
+        int distWidth = (n * maxWeight < 0xffff) ? 2 : 4;
+        int predWidth = (n < 0xffff) ? 2 : 4;
+        MappedDistances md =
+            new MappedDistances(graph, distWidth, predWidth);
+
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            md.map(channel, FileChannel.MapMode.READ_WRITE);
+            md.fill(threads);
+            ByteBuffer header = md.header(graph);
+            channel.write(header, 0);
+            for (MappedByteBuffer b : md.distChunks)
+                b.force();
+            for (MappedByteBuffer b : md.predChunks)
+                b.force();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            md.close();
+            throw e;
+        } finally {
+            channel.close();
+        }
+        return md;
+    }
+
+    /**
+     * Map a file made by create() for this graph.
+     *
+     * @return  null if it is missing, incomplete or for another graph
+     */
+    public static MappedDistances open(AdjacencyList graph, Path file)
+            throws IOException {
+        if (!file.toFile().exists())
+            return null;
+        FileChannel channel =
+            FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (channel.read(header, 0) < HEADER)
+                return null;
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT)
+                return null;
+            int n = header.getInt();
+            int distWidth = header.getInt();
+            int predWidth = header.getInt();
+            long fingerprint = header.getLong();
+            if (n != graph.getNodeList().size() ||
+                    fingerprint != fingerprint(graph))
+                return null;
+            MappedDistances md =
+                new MappedDistances(graph, distWidth, predWidth);
+            if (channel.size() < md.size())
+                return null;
+            md.map(channel, FileChannel.MapMode.READ_ONLY);
+            return md;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return  the matrix in file if it is for graph, else a new one
+     */
+    public static MappedDistances load(AdjacencyList graph, Path file,
+            int threads) throws IOException {
+        MappedDistances md = open(graph, file);
+        if (md == null)
+            md = create(graph, file, threads);
+        return md;
+    }
+
+    private long size() {
+        long entries = (long)nNodes * nNodes;
+        return HEADER + entries * (distWidth + predWidth);
+    }
+
+    private void map(FileChannel channel, FileChannel.MapMode mode)
+            throws IOException {
+        int chunks = (nNodes + rowsPerChunk - 1) / rowsPerChunk;
+        distChunks = new MappedByteBuffer[chunks];
+        predChunks = new MappedByteBuffer[chunks];
+        long distStart = HEADER;
+        long predStart = HEADER + (long)nNodes * nNodes * distWidth;
+        for (int c=0; c<chunks; c++) {
+            long row = (long)c * rowsPerChunk;
+            long rows = Math.min(rowsPerChunk, nNodes - row);
+            distChunks[c] = channel.map(mode,
+                    distStart + row * nNodes * distWidth,
+                    rows * nNodes * distWidth);
+            predChunks[c] = channel.map(mode,
+                    predStart + row * nNodes * predWidth,
+                    rows * nNodes * predWidth);
+        }
+    }
+
+    /**
+     * one Dijkstra per source, written to the mapping as done
+     */
+    private void fill(int threads) {
+        final Dijkstra dijkstra = new Dijkstra(graph);
+        final int workers = Math.max(1, threads);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        ArrayList<ForkJoinTask<Void>> tasks =
+            new ArrayList<ForkJoinTask<Void>>();
+        for (int t=0; t<workers; t++) {
+            final int start = t;
+            tasks.add(pool.submit(new Callable<Void>() {
+                public Void call() {
+                    Dijkstra.Heap heap = new Dijkstra.Heap(nNodes);
+                    for (int s=start; s<nNodes; s+=workers) {
+                        Dijkstra.Row r = dijkstra.search(s, heap);
+                        for (int x=0; x<nNodes; x++) {
+                            int a = r.arc[x];
+                            put(distChunks, distWidth, s, x, r.dist[x]);
+                            put(predChunks, predWidth, s, x,
+                                    (a < 0) ? -1 : dijkstra.arcFrom[a]);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (ForkJoinTask<Void> task : tasks)
+            task.join();
+        pool.shutdown();
+    }
+
+    private ByteBuffer header(AdjacencyList graph) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT);
+        header.putInt(nNodes);
+        header.putInt(distWidth);
+        header.putInt(predWidth);
+        header.putLong(fingerprint(graph));
+        header.rewind();
+        return header;
+    }
+
+    /**
+     * @return  a hash of the node numbering and the edges, in any order
+     */
+    static long fingerprint(AdjacencyList graph) {
+        long h = graph.getNodeList().size();
+        for (Edge e : graph.getAllEdges()) {
+            long x = graph.getNodeIndex(e.from);
+            x = x * 0x9E3779B97F4A7C15L + graph.getNodeIndex(e.to);
+            x = x * 0x9E3779B97F4A7C15L + e.from.name;
+            x = x * 0x9E3779B97F4A7C15L + e.to.name;
+            x = x * 0x9E3779B97F4A7C15L + e.weight;
+            x ^= x >>> 31;
+            h += x * 0xBF58476D1CE4E5B9L;
+        }
+        return h;
+    }
+
+    private void put(MappedByteBuffer[] chunks, int width, int row, int col,
+            int value) {
+        int index = ((row % rowsPerChunk) * nNodes + col) * width;
+        ByteBuffer b = chunks[row / rowsPerChunk];
+        if (width == 2)
+            b.putChar(index, (value < 0 || value >= 0xffff) ?
+                    (char)0xffff : (char)value);
+        else
+            b.putInt(index, value);
+    }
+
+    private int get(MappedByteBuffer[] chunks, int width, int row, int col) {
+        if (chunks == null)
+            throw new IllegalStateException("closed");
+        if (stale)
+            throw new IllegalStateException("graph changed");
+        int index = ((row % rowsPerChunk) * nNodes + col) * width;
+        ByteBuffer b = chunks[row / rowsPerChunk];
+        if (width == 4)
+            return b.getInt(index);
+        return b.getChar(index);
+    }
+
+    public int getShortestDistance(int i, int j) {
+        int d = get(distChunks, distWidth, i, j);
+        return (distWidth == 2 && d == 0xffff) ? INFINITY : d;
+    }
+
+    private int getPred(int i, int x) {
+        int p = get(predChunks, predWidth, i, x);
+        return (predWidth == 2 && p == 0xffff) ? -1 : p;
+    }
+
+    public int getShortestPath(int i, int j, int[] path) {
+        if (getShortestDistance(i, j) == INFINITY)
+            return 0;
+        int k = path.length;
+        int v = j;
+        path[--k] = v;
+        do {
+            v = getPred(i, v);
+            path[--k] = v;
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public int getShortestPathEdges(int i, int j, Edge[] path) {
+        if (getShortestDistance(i, j) == INFINITY)
+            return 0;
+        if (arcs == null)
+            initArcs();
+        int k = path.length;
+        int v = j;
+        do {
+            int u = getPred(i, v);
+            path[--k] = arcs[Arrays.binarySearch(head, first[u], first[u+1],
+                    v)];
+            v = u;
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public int getShortestPathArcs(int i, int j, int[] path) {
+        if (getShortestDistance(i, j) == INFINITY)
+            return 0;
+        if (arcs == null)
+            initArcs();
+        int k = path.length;
+        int v = j;
+        do {
+            int u = getPred(i, v);
+            path[--k] = Arrays.binarySearch(head, first[u], first[u+1], v);
+            v = u;
+        } while (v != i);
+        int length = path.length - k;
+        System.arraycopy(path, k, path, 0, length);
+        return length;
+    }
+
+    public Edge[] getArcs() {
+        if (arcs == null)
+            initArcs();
+        return arcs;
+    }
+
+    /**
+     * number the edges by tail, then head
+     */
+    private synchronized void initArcs() {
+        if (arcs != null)
+            return;
+        int m = graph.getAllEdges().size();
+        int[] f = new int[nNodes + 1];
+        int[] h = new int[m];
+        Edge[] a = new Edge[m];
+        for (int u=0; u<nNodes; u++) {
+            ArrayList<Edge> out = graph.getOutEdges(graph.getNode(u));
+            long[] keys = new long[out.size()];
+            for (int k=0; k<keys.length; k++)
+                keys[k] = (long)graph.getNodeIndex(out.get(k).to) << 32 | k;
+            Arrays.sort(keys);
+            f[u+1] = f[u] + keys.length;
+            for (int k=0; k<keys.length; k++) {
+                h[f[u] + k] = (int)(keys[k] >>> 32);
+                a[f[u] + k] = out.get((int)keys[k]);
+            }
+        }
+        first = f;
+        head = h;
+        arcs = a;
+    }
+
+    /**
+     * @return  null: the point of the file is not to have the whole
+     *          matrix on the heap
+     */
+    public int[] getDistances() {
+        return null;
+    }
+
+    public void edgeChanged(int u, int v, int oldWeight, int weight) {
+        stale = true;
+    }
+
+    /**
+     * Unmap the file now.  The matrix can't be used after.
+     */
+    public synchronized void close() {
+        if (distChunks == null)
+            return;
+        for (MappedByteBuffer b : distChunks)
+            unmap(b);
+        for (MappedByteBuffer b : predChunks)
+            unmap(b);
+        distChunks = predChunks = null;
+    }
+
+    /**
+     * free a mapping by its cleaner, through sun.misc.Unsafe where there
+     * is one; otherwise it goes when the buffer is collected
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null)
+            return;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Method clean = c.getMethod("invokeCleaner", ByteBuffer.class);
+            clean.invoke(f.get(null), buffer);
+        } catch (Exception e) {
+            Debug.println(2, "can't unmap: " + e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = 1;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+	if (args.length < first + 2) {
+	    System.out.println("Usage: MappedDistances [-t threads] " +
+                "<inputfile> <matrixfile>");
+	    return;
+	}
+        AdjacencyList graph = Facebull.loadFile(args[first]);
+        if (graph == null)
+            return;
+        Path file = Paths.get(args[first + 1]);
+        long start = System.nanoTime();
+        MappedDistances md = open(graph, file);
+        String how = "opened";
+        if (md == null) {
+            md = create(graph, file, threads);
+            how = "created";
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int n = md.nNodes;
+        System.out.println(how + " " + file + ": " + n + " nodes, " +
+                md.distWidth * 8 + "/" + md.predWidth * 8 + " bits, " +
+                seconds + "s");
+        long sum = 0;
+        int[] path = new int[n + 1];
+        int hops = 0;
+        for (int i=0; i<n; i++) {
+            int j = (int)((i * 7919L) % n);
+            int d = md.getShortestDistance(i, j);
+            if (d != INFINITY) {
+                sum += d;
+                hops += md.getShortestPath(i, j, path);
+            }
+        }
+        System.out.println("sample distance sum " + sum + ", nodes " + hops);
+        md.close();
+    }
+}
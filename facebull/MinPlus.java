@@ -0,0 +1,11 @@
+/**
+ * The inner loop of FloydWarshall, so a vector version can be plugged in.
+ */
+public interface MinPlus {
+    /**
+     * For j in [from, to): if dik + dist[k+j] < dist[i+j], store it, with
+     * next hop nik.  i and k are row offsets.
+     */
+    void relax(int[] dist, int[] next, int i, int k, int from, int to,
+            int dik, int nik);
+}
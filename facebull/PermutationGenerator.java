@@ -1,156 +1,264 @@
+import java.math.BigInteger;
 
 /**
- * The PermutationGenerator Java class systematically generates permutations.
- * It relies on the fact that any set with n elements can be placed in
- * one-to-one correspondence with the set {1, 2, 3, ..., n}. The algorithm is
- * described by Kenneth H. Rosen, Discrete Mathematics and Its Applications,
- * 2nd edition (NY: McGraw-Hill, 1991), pp. 282-284.
+ * Systematically generate the permutations of {0, 1, ..., n-1} by Heap's
+ * algorithm: each one differs from the one before by a single swap, and
+ * getSwapA() and getSwapB() say which two positions it was, so a caller
+ * can update a cost instead of recomputing it.
+ *
+ * Usage is unchanged:
  *
- * The class is very easy to use. Suppose that you wish to generate all
- * permutations of the strings "a", "b", "c", and "d". Put them into an array.
- * Keep calling the permutation generator's getNext() method until there are
- * no more permutations left. The getNext() method returns an array of integers,
- * which tell you the order in which to arrange your original array of strings.
- * Here is a snippet of code which illustrates how to use the
- * PermutationGenerator class.
-
- * One caveat. Don't use this class on large sets. Recall that the number of
- * permutations of a set containing n elements is n factorial, which is a very
- * large number even when n is as small as 20. 20! is 2,432,902,008,176,640,000.
+ *   PermutationGenerator pg = new PermutationGenerator(4);
+ *   while (pg.hasMore()) {
+ *       int[] indices = pg.getNext();
+ *       ...
+ *   }
  *
- * The source code is free for you to use in whatever way you wish.
+ * The first permutation is the identity.  Progress is a long, so n is at
+ * most 20 (20! = 2,432,902,008,176,640,000 and 21! doesn't fit).
  *
- * @author MICHAEL GILLELAND <megilleland@yahoo.com>
+ * The iterative algorithm keeps a counter c[i] < i+1 per position, and
+ * the permutation numbered r is the one with c holding r in the mixed
+ * radix 1!, 2!, 3!, ...  That makes rank() and unrank() cheap, so the
+ * permutations can be split in ranges, e.g. across threads, with
+ * setRank().  For small n, getTable() and getSwapTable() cache the whole
+ * sequence; they list it in an array, so n is at most 12 for them.
  */
-
-
-//--------------------------------------
-// Systematically generate permutations.
-//--------------------------------------
-
-import java.math.BigInteger;
-
 public class PermutationGenerator {
-
-  private int[] a;
-  private BigInteger numLeft;
-  private BigInteger total;
-
-  //-----------------------------------------------------------
-  // Constructor. WARNING: Don't make n too large.
-  // Recall that the number of permutations is n!
-  // which can be very large, even when n is as small as 20 --
-  // 20! = 2,432,902,008,176,640,000 and
-  // 21! is too big to fit into a Java long, which is
-  // why we use BigInteger instead.
-  //----------------------------------------------------------
-
-  public PermutationGenerator (int n) {
-    if (n < 1) {
-      throw new IllegalArgumentException ("Min 1");
+    static final int MAX_N = 20;
+    static final int MAX_TABLE = 8;
+    static final int MAX_LISTED = 12;   // 13! entries don't fit an array
+
+    static final long[] FACTORIAL = new long[MAX_N + 1];
+    static {
+        FACTORIAL[0] = 1;
+        for (int i=1; i<=MAX_N; i++)
+            FACTORIAL[i] = FACTORIAL[i-1] * i;
     }
-    a = new int[n];
-    total = getFactorial(n);
-    reset ();
-  }
-
-  //------
-  // Reset
-  //------
 
-  public void reset () {
-    for (int i = 0; i < a.length; i++) {
-      a[i] = i;
+    // EFFECT[m]: what a full pass over the first m positions does to them
+    static final int[][] EFFECT = new int[MAX_N + 1][];
+    static {
+        EFFECT[1] = new int[] { 0 };
+        for (int m=2; m<=MAX_N; m++) {
+            int[] a = new int[m];
+            for (int i=0; i<m; i++)
+                a[i] = i;
+            for (int d=0; d<m; d++)
+                step(a, m, d);
+            EFFECT[m] = a;
+        }
     }
-    numLeft = new BigInteger (total.toString ());
-  }
-
-  //------------------------------------------------
-  // Return number of permutations not yet generated
-  //------------------------------------------------
-
-  public BigInteger getNumLeft () {
-    return numLeft;
-  }
 
-  //------------------------------------
-  // Return total number of permutations
-  //------------------------------------
-
-  public BigInteger getTotal () {
-    return total;
-  }
-
-  //-----------------------------
-  // Are there more permutations?
-  //-----------------------------
-
-  public boolean hasMore () {
-    return numLeft.compareTo(BigInteger.ZERO) == 1;
-  }
+    static int[][][] tables = new int[MAX_TABLE + 1][][];
+    static int[][] swapTables = new int[MAX_TABLE + 1][];
+
+    private int[] a;
+    private int[] c;
+    private long next;          // rank of the next permutation
+    private long total;
+    private int i;
+    private boolean fresh;      // a holds the next one already
+    private int swapA = -1;
+    private int swapB = -1;
+
+    public PermutationGenerator(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("Min 1");
+        if (n > MAX_N)
+            throw new IllegalArgumentException("Max " + MAX_N);
+        a = new int[n];
+        c = new int[n];
+        total = FACTORIAL[n];
+        reset();
+    }
 
-  //------------------
-  // Compute factorial
-  //------------------
+    public void reset() {
+        setRank(0);
+    }
 
-  private static BigInteger getFactorial(int n) {
-    BigInteger fact = BigInteger.ONE;
-    for (int i = n; i > 1; i--) {
-      fact = fact.multiply(new BigInteger(Integer.toString(i)));
+    /**
+     * make the permutation numbered rank the next one returned, O(n^2)
+     */
+    public void setRank(long rank) {
+        if (rank < 0 || rank > total)
+            throw new IllegalArgumentException("rank " + rank);
+        next = rank;
+        swapA = swapB = -1;
+        i = 1;
+        fresh = true;
+        if (rank == total)
+            return;
+        unrank(rank, a);
+        for (int k=1; k<a.length; k++)
+            c[k] = (int)(rank / FACTORIAL[k] % (k + 1));
     }
-    return fact;
-  }
 
-  //--------------------------------------------------------
-  // Generate next permutation (algorithm from Rosen p. 284)
-  //--------------------------------------------------------
+    /**
+     * @return  number of permutations not yet generated
+     */
+    public BigInteger getNumLeft() {
+        return BigInteger.valueOf(total - next);
+    }
 
-  public int[] getNext () {
+    /**
+     * @return  total number of permutations
+     */
+    public BigInteger getTotal() {
+        return BigInteger.valueOf(total);
+    }
 
-    if (numLeft.equals(total)) {
-      numLeft = numLeft.subtract(BigInteger.ONE);
-      return a;
+    public long getCount() {
+        return total;
     }
 
-    int temp;
+    /**
+     * @return  the rank of the permutation getNext() returns next
+     */
+    public long getRank() {
+        return next;
+    }
 
-    // Find largest index j with a[j] < a[j+1]
+    public boolean hasMore() {
+        return next < total;
+    }
 
-    int j = a.length - 2;
-    while (a[j] > a[j+1]) {
-      j--;
+    /**
+     * @return  the next permutation.  The array is reused.
+     */
+    public int[] getNext() {
+        if (fresh) {
+            fresh = false;
+            next++;
+            return a;
+        }
+        while (c[i] >= i) {
+            c[i] = 0;
+            i++;
+        }
+        swapA = (i % 2 == 0) ? 0 : c[i];
+        swapB = i;
+        int t = a[swapA];
+        a[swapA] = a[swapB];
+        a[swapB] = t;
+        c[i]++;
+        i = 1;
+        next++;
+        return a;
     }
 
-    // Find index k such that a[k] is smallest integer
-    // greater than a[j] to the right of a[j]
+    /**
+     * @return  the two positions swapped to make the last permutation
+     *          from the one before, or -1 for the first one
+     */
+    public int getSwapA() {
+        return swapA;
+    }
 
-    int k = a.length - 1;
-    while (a[j] > a[k]) {
-      k--;
+    public int getSwapB() {
+        return swapB;
     }
 
-    // Interchange a[j] and a[k]
+    /**
+     * @return  the rank of perm in this order, O(n^2)
+     */
+    public static long rank(int[] perm) {
+        int n = perm.length;
+        int[] a = new int[n];
+        for (int k=0; k<n; k++)
+            a[k] = k;
+        long rank = 0;
+        for (int m=n; m>1; m--) {
+            // perm[m-1] is fixed by the number of full passes over the
+            // first m-1 positions done at this level
+            int d = 0;
+            while (a[m-1] != perm[m-1]) {
+                step(a, m, d++);
+                if (d == m)
+                    throw new IllegalArgumentException("not a permutation");
+            }
+            rank += d * FACTORIAL[m-1];
+        }
+        return rank;
+    }
 
-    temp = a[k];
-    a[k] = a[j];
-    a[j] = temp;
+    /**
+     * store the permutation numbered rank in a, O(n^2)
+     */
+    public static void unrank(long rank, int[] a) {
+        int n = a.length;
+        for (int k=0; k<n; k++)
+            a[k] = k;
+        for (int m=n; m>1; m--) {
+            int d = (int)(rank / FACTORIAL[m-1]);
+            rank %= FACTORIAL[m-1];
+            for (int k=0; k<d; k++)
+                step(a, m, k);
+        }
+    }
 
-    // Put tail end of permutation after jth position in increasing order
+    /**
+     * one full pass over the first m-1 positions of a, then the swap
+     * that follows pass number d at level m
+     */
+    private static void step(int[] a, int m, int d) {
+        int[] effect = EFFECT[m-1];
+        int[] t = new int[m-1];
+        for (int k=0; k<m-1; k++)
+            t[k] = a[effect[k]];
+        System.arraycopy(t, 0, a, 0, m-1);
+        if (d < m-1) {
+            int s = (m % 2 == 0) ? d : 0;
+            int x = a[s];
+            a[s] = a[m-1];
+            a[m-1] = x;
+        }
+    }
 
-    int r = a.length - 1;
-    int s = j + 1;
+    /**
+     * @return  all the permutations of n, in order, cached for n up to
+     *          MAX_TABLE.  The arrays are shared: don't change them.
+     */
+    public static synchronized int[][] getTable(int n) {
+        checkListed(n);
+        if (n <= MAX_TABLE && tables[n] != null)
+            return tables[n];
+        PermutationGenerator pg = new PermutationGenerator(n);
+        int[][] table = new int[(int)pg.getCount()][];
+        for (int k=0; pg.hasMore(); k++)
+            table[k] = pg.getNext().clone();
+        if (n <= MAX_TABLE)
+            tables[n] = table;
+        return table;
+    }
 
-    while (r > s) {
-      temp = a[s];
-      a[s] = a[r];
-      a[r] = temp;
-      r--;
-      s++;
+    /**
+     * @return  the swaps between consecutive permutations of n: entries
+     *          2k and 2k+1 are the positions swapped to go from
+     *          permutation k to k+1.  Cached for n up to MAX_TABLE.
+     */
+    public static synchronized int[] getSwapTable(int n) {
+        checkListed(n);
+        if (n <= MAX_TABLE && swapTables[n] != null)
+            return swapTables[n];
+        PermutationGenerator pg = new PermutationGenerator(n);
+        int[] table = new int[2 * ((int)pg.getCount() - 1)];
+        pg.getNext();
+        for (int k=0; pg.hasMore(); k++) {
+            pg.getNext();
+            table[2*k] = pg.getSwapA();
+            table[2*k+1] = pg.getSwapB();
+        }
+        if (n <= MAX_TABLE)
+            swapTables[n] = table;
+        return table;
     }
 
-    numLeft = numLeft.subtract(BigInteger.ONE);
-    return a;
-  }
+    private static void checkListed(int n) {
+        if (n > MAX_LISTED)
+            throw new IllegalArgumentException("Max " + MAX_LISTED +
+                    " for a table: " + n + "! permutations don't fit");
+    }
 
     public static void main(String[] args) {
         int[] indices;
@@ -0,0 +1,196 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a machine list, lines of "M<id> C<from> C<to> <price>", straight
+ * from bytes into a GraphBuilder: no Strings, no boxing, nothing made per
+ * line.  A file is mapped, in windows of up to WINDOW bytes that end on a
+ * whole line; "-" is standard input, read through a growing buffer.
+ *
+ * Fields are separated by spaces or tabs, and fields past the fourth are
+ * ignored; the first letter of each of the first three is not looked at.
+ * Blank lines are skipped.  Any other line that does not parse is a
+ * FormatException naming the file and line.
+ */
+public class PriceListReader {
+    static final long WINDOW = 1L << 30;        // bytes per mapping, at most
+    static final int BUFFER = 1 << 16;          // to start, for a stream
+
+    String name;
+    GraphBuilder builder;
+    int line = 0;               // lines read so far
+
+    // the line being parsed
+    ByteBuffer buf;
+    int lineStart;
+    int pos;
+    int end;
+
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+        public final int line;
+
+        FormatException(String name, int line, String message) {
+            super(name + ":" + line + ": " + message);
+            this.line = line;
+        }
+    }
+
+    public PriceListReader(String name, GraphBuilder builder) {
+        this.name = name;
+        this.builder = builder;
+    }
+
+    /**
+     * Read file, "-" for standard input, into builder.
+     */
+    public static void read(String file, GraphBuilder builder)
+            throws IOException {
+        PriceListReader reader = new PriceListReader(file, builder);
+        if (file.equals("-")) {
+            reader.read(Channels.newChannel(System.in));
+            return;
+        }
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            reader.read(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Map the file a window at a time; each window but the last ends
+     * after its last newline, and the next starts there.
+     */
+    public void read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long base = 0;
+        while (base < size) {
+            long length = Math.min(WINDOW, size - base);
+            boolean last = base + length == size;
+            MappedByteBuffer window =
+                channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+            int used = parse(window, last);
+            MappedDistances.unmap(window);
+            if (used == 0 && !last)
+                throw new FormatException(name, line + 1, "line too long");
+            base += used;
+        }
+    }
+
+    /**
+     * Read the stream into a buffer, parse the whole lines in it, and
+     * move the rest to the front for the next read.  The buffer doubles
+     * when one line fills it.
+     */
+    public void read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        boolean eof = false;
+        while (!eof) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buffer.flip();
+            int used = parse(buffer, eof);
+            buffer.position(used);
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(2 * buffer.capacity());
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    /**
+     * Parse the whole lines in b, and the unfinished one at the end too if
+     * last.
+     *
+     * @return  the number of bytes used
+     */
+    int parse(ByteBuffer b, boolean last) throws FormatException {
+        buf = b;
+        int limit = b.limit();
+        int start = 0;
+        while (start < limit) {
+            int eol = start;
+            while (eol < limit && b.get(eol) != '\n')
+                eol++;
+            if (eol == limit && !last)
+                break;
+            line++;
+            lineStart = pos = start;
+            end = eol;
+            parseLine();
+            start = eol + 1;
+        }
+        return Math.min(start, limit);
+    }
+
+    private void parseLine() throws FormatException {
+        skipSpace();
+        if (pos == end)
+            return;             // blank
+        int machine = (int)number(1, "machine");
+        int from = (int)number(1, "from country");
+        int to = (int)number(1, "to country");
+        long price = number(0, "price");
+        builder.addEdge(machine, from, to, (int)price);
+    }
+
+    /**
+     * @param skip  number of letters before the digits
+     * @return      the next field, which is an int if skip is 1
+     */
+    private long number(int skip, String field) throws FormatException {
+        skipSpace();
+        if (pos + skip >= end)
+            throw error("missing " + field);
+        pos += skip;
+        boolean negative = skip == 0 && buf.get(pos) == '-';
+        if (negative)
+            pos++;
+        int first = pos;
+        long most = (skip == 0) ? Long.MAX_VALUE : Integer.MAX_VALUE;
+        long n = 0;
+        while (pos < end) {
+            int c = buf.get(pos) - '0';
+            if (c < 0 || c > 9)
+                break;
+            if (n > (most - c) / 10)
+                throw error(field + " out of range");
+            n = 10 * n + c;
+            pos++;
+        }
+        if (pos == first || (pos < end && !isSpace(buf.get(pos))))
+            throw error("bad " + field);
+        return negative ? -n : n;
+    }
+
+    private void skipSpace() {
+        while (pos < end && isSpace(buf.get(pos)))
+            pos++;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0b;
+    }
+
+    private FormatException error(String message) {
+        StringBuilder text = new StringBuilder();
+        for (int i=lineStart; i<end && i<lineStart+80; i++)
+            text.append((char)(buf.get(i) & 0xff));
+        return new FormatException(name, line,
+                message + ": " + text.toString().trim());
+    }
+}
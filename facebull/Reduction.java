@@ -0,0 +1,527 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Shrink a graph before solving it, keeping at least one optimal solution.
+ *
+ * An edge is forced when every strongly connected set of machines must
+ * contain it: the only edge into or out of a node, or a strong bridge (an
+ * edge whose removal breaks strong connectivity).  Once forced edges are
+ * marked,
+ *
+ *   - drop an edge u->v if some other path from u to v costs no more,
+ *     counting forced edges as free.  Replacing the edge by the path never
+ *     costs more.  Ties are broken by edge rank, so two edges can not
+ *     each be dropped in favor of the other.
+ *
+ * and then, until nothing changes:
+ *
+ *   - mark forced edges, finding strong bridges with dominators: u->v is
+ *     a strong bridge iff it dominates v in the graph from a root, or u in
+ *     the reversed graph.
+ *   - contract a node with one edge in, a->v, and one edge out, v->b, into
+ *     a single forced machine a->b (or into the fixed edges if a == b).
+ *
+ * Dropping takes a Floyd-Warshall over all pairs, O(n^3), so it is done
+ * once: repeating it after every contraction, for the few edges the new
+ * free machines dominate, made the whole reduction O(n^4).  Dominators
+ * are found by the simple iterative algorithm, which is O(n + e) per
+ * pass but O((n + e)^2) in the worst case; on these graphs that beats
+ * the bookkeeping of Lengauer-Tarjan, and it runs every round.
+ *
+ * getGraph() is the reduced graph.  A contracted machine is not needed
+ * for strong connectivity there, since its middle node is gone, so forced
+ * edges are kept with weight 0 and always added back: expand() maps a
+ * solution of the reduced graph to the original machines plus the forced
+ * and fixed edges.  Contracted machines get new (negative) names.
+ * Weights must be positive.
+ */
+public class Reduction {
+    static final long INFINITY = Long.MAX_VALUE / 4;
+
+    AdjacencyList original;
+    AdjacencyList reduced;
+    int nNodes;
+    Node[] nodes;
+
+    // working edges, nEdges of them: endpoints, weight, rank, state, and
+    // the original machines each one stands for
+    int nEdges;
+    int[] from;
+    int[] to;
+    int[] weight;
+    int[] rank;
+    boolean[] alive;
+    boolean[] forced;
+    ArrayList<ArrayList<Edge>> members = new ArrayList<ArrayList<Edge>>();
+    boolean[] nodeAlive;
+
+    // live edges at each node: how many in and out, and the xor of their
+    // indexes, which is the edge itself when there is only one
+    int[] inDegree;
+    int[] outDegree;
+    int[] inXor;
+    int[] outXor;
+    // edges out of each node, dead ones dropped when a scan meets them
+    int[][] outEdges;
+    int[] outLength;
+
+    ArrayList<Edge> fixed = new ArrayList<Edge>();
+    HashMap<Integer,ArrayList<Edge>> expansion =
+        new HashMap<Integer,ArrayList<Edge>>();
+
+    int dropped;
+    int bridges;
+    int contracted;
+
+    public Reduction(AdjacencyList g) {
+        original = g;
+        nNodes = g.getNodeList().size();
+        nodes = g.getNodeList().toArray(new Node[nNodes]);
+        nodeAlive = new boolean[nNodes];
+        Arrays.fill(nodeAlive, true);
+        inDegree = new int[nNodes];
+        outDegree = new int[nNodes];
+        inXor = new int[nNodes];
+        outXor = new int[nNodes];
+        outEdges = new int[nNodes][4];
+        outLength = new int[nNodes];
+        ArrayList<Edge> allEdges = g.getAllEdges();
+        int size = Math.max(16, allEdges.size() + nNodes);
+        from = new int[size];
+        to = new int[size];
+        weight = new int[size];
+        rank = new int[size];
+        alive = new boolean[size];
+        forced = new boolean[size];
+        Collections.sort(allEdges, new EdgeWeightComparator());
+        for (Edge e : allEdges) {
+            int u = g.getNodeIndex(e.from);
+            int v = g.getNodeIndex(e.to);
+            if (u == v)
+                continue;
+            ArrayList<Edge> m = new ArrayList<Edge>();
+            m.add(e);
+            addWorkingEdge(u, v, e.weight, m);
+        }
+        reduce();
+        build();
+        Debug.println(2, "reduction: " + original.getAllEdges().size() +
+            " -> " + reduced.getAllEdges().size() + " edges, " + nNodes +
+            " -> " + reduced.getNodeList().size() + " nodes (" + dropped +
+            " dominated, " + bridges + " strong bridges, " + contracted +
+            " contracted, " + fixed.size() + " fixed)");
+    }
+
+    /**
+     * @return  the reduced graph
+     */
+    public AdjacencyList getGraph() {
+        return reduced;
+    }
+
+    /**
+     * @return  original edges that are in every solution.  Their weight is
+     *          not counted in the reduced graph.
+     */
+    public ArrayList<Edge> getFixedEdges() {
+        return fixed;
+    }
+
+    /**
+     * @return  true if the fixed edges alone are a solution, so there is
+     *          nothing left to solve
+     */
+    public boolean isSolved() {
+        return reduced.getAllEdges().isEmpty();
+    }
+
+    /**
+     * @return  the original edges of a solution of the reduced graph, plus
+     *          the fixed edges, or null if solution is null
+     */
+    public ArrayList<Edge> expand(ArrayList<Edge> solution) {
+        if (solution == null)
+            return null;
+        ArrayList<Edge> edges = new ArrayList<Edge>(fixed);
+        for (Edge e : solution)
+            edges.addAll(expansion.get(e.name));
+        return edges;
+    }
+
+    private int addWorkingEdge(int u, int v, int w, ArrayList<Edge> m) {
+        if (nEdges == from.length)
+            grow();
+        int e = nEdges++;
+        from[e] = u;
+        to[e] = v;
+        weight[e] = w;
+        rank[e] = nEdges;
+        alive[e] = true;
+        members.add(m);
+        outDegree[u]++;
+        outXor[u] ^= e;
+        inDegree[v]++;
+        inXor[v] ^= e;
+        if (outLength[u] == outEdges[u].length)
+            outEdges[u] = Arrays.copyOf(outEdges[u], 2 * outLength[u]);
+        outEdges[u][outLength[u]++] = e;
+        return e;
+    }
+
+    /**
+     * take e out of the graph, and out of the counts of its ends
+     */
+    private void kill(int e) {
+        alive[e] = false;
+        outDegree[from[e]]--;
+        outXor[from[e]] ^= e;
+        inDegree[to[e]]--;
+        inXor[to[e]] ^= e;
+    }
+
+    private void grow() {
+        int size = 2 * from.length;
+        from = Arrays.copyOf(from, size);
+        to = Arrays.copyOf(to, size);
+        weight = Arrays.copyOf(weight, size);
+        rank = Arrays.copyOf(rank, size);
+        alive = Arrays.copyOf(alive, size);
+        forced = Arrays.copyOf(forced, size);
+    }
+
+    private void reduce() {
+        markForced();
+        dropDominated();
+        boolean changed = true;
+        while (changed) {
+            markForced();
+            changed = contractChains();
+        }
+    }
+
+    /**
+     * force single incoming and outgoing edges, and strong bridges
+     */
+    private void markForced() {
+        for (int v=0; v<nNodes; v++) {
+            if (inDegree[v] == 1)
+                forced[inXor[v]] = true;
+            if (outDegree[v] == 1)
+                forced[outXor[v]] = true;
+        }
+        markBridges(true);
+        markBridges(false);
+    }
+
+    /**
+     * Dominators of the graph with every edge split by a node of its own,
+     * from the first live node, forward or reversed.  Edge e then
+     * dominates its head iff the node splitting it is the head's
+     * immediate dominator.
+     */
+    private void markBridges(boolean forward) {
+        int root = -1;
+        for (int v=nNodes-1; v>=0; v--) {
+            if (nodeAlive[v])
+                root = v;
+        }
+        if (root < 0)
+            return;
+        int size = nNodes + nEdges;
+        int[][] succ = new int[size][];
+        int[] count = new int[size];
+        for (int e=0; e<nEdges; e++) {
+            if (alive[e])
+                count[forward ? from[e] : to[e]]++;
+        }
+        for (int x=0; x<size; x++)
+            succ[x] = new int[(x < nNodes) ? count[x] : 1];
+        Arrays.fill(count, 0);
+        for (int e=0; e<nEdges; e++) {
+            if (!alive[e])
+                continue;
+            int tail = forward ? from[e] : to[e];
+            int head = forward ? to[e] : from[e];
+            succ[tail][count[tail]++] = nNodes + e;
+            succ[nNodes + e][0] = head;
+        }
+        int[] idom = immediateDominators(succ, root);
+        for (int v=0; v<nNodes; v++) {
+            if (nodeAlive[v] && v != root && idom[v] < 0)
+                return;                 // not strongly connected
+        }
+        for (int v=0; v<nNodes; v++) {
+            if (nodeAlive[v] && idom[v] >= nNodes) {
+                int e = idom[v] - nNodes;
+                if (!forced[e])
+                    bridges++;
+                forced[e] = true;
+            }
+        }
+    }
+
+    /**
+     * Immediate dominators by the iterative algorithm of Cooper, Harvey and
+     * Kennedy: repeatedly intersect the dominators of the predecessors, in
+     * reverse postorder, until nothing changes.
+     *
+     * @return  idom[x] for every node reachable from root, idom[root] ==
+     *          root, and -1 for the others
+     */
+    static int[] immediateDominators(int[][] succ, int root) {
+        int size = succ.length;
+        int[] post = new int[size];
+        int[] order = new int[size];        // nodes by postorder number
+        Arrays.fill(post, -1);
+        boolean[] visited = new boolean[size];
+        int[] stack = new int[size];
+        int[] next = new int[size];
+        int top = 0, n = 0;
+        stack[top++] = root;
+        visited[root] = true;
+        while (top > 0) {
+            int x = stack[top-1];
+            if (next[x] < succ[x].length) {
+                int y = succ[x][next[x]++];
+                if (!visited[y]) {
+                    visited[y] = true;
+                    stack[top++] = y;
+                }
+            } else {
+                top--;
+                post[x] = n;
+                order[n++] = x;
+            }
+        }
+
+        int[] predCount = new int[size];
+        for (int x=0; x<size; x++) {
+            if (visited[x]) {
+                for (int y : succ[x])
+                    predCount[y]++;
+            }
+        }
+        int[][] pred = new int[size][];
+        for (int x=0; x<size; x++)
+            pred[x] = new int[predCount[x]];
+        Arrays.fill(predCount, 0);
+        for (int x=0; x<size; x++) {
+            if (visited[x]) {
+                for (int y : succ[x])
+                    pred[y][predCount[y]++] = x;
+            }
+        }
+
+        int[] idom = new int[size];
+        Arrays.fill(idom, -1);
+        idom[root] = root;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i=n-2; i>=0; i--) {
+                int x = order[i];
+                int d = -1;
+                for (int p : pred[x]) {
+                    if (idom[p] < 0)
+                        continue;
+                    if (d < 0) {
+                        d = p;
+                        continue;
+                    }
+                    int a = p;
+                    while (a != d) {
+                        while (post[a] < post[d])
+                            a = idom[a];
+                        while (post[d] < post[a])
+                            d = idom[d];
+                    }
+                }
+                if (idom[x] != d) {
+                    idom[x] = d;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    /**
+     * drop the edges some other path costs no more than, in O(n^3)
+     */
+    private void dropDominated() {
+        long scale = (long)nNodes * (nEdges + 1) + 1;
+        int maxWeight = 0;
+        for (int e=0; e<nEdges; e++)
+            maxWeight = Math.max(maxWeight, weight[e]);
+        if (maxWeight > INFINITY / scale / (nNodes + 1))
+            return;                 // ranked weights would overflow
+
+        // ranked weight: weight first, then rank; forced edges are free
+        long[] cost = new long[nEdges];
+        long[][] d = new long[nNodes][nNodes];
+        for (int u=0; u<nNodes; u++) {
+            Arrays.fill(d[u], INFINITY);
+            d[u][u] = 0;
+        }
+        for (int e=0; e<nEdges; e++) {
+            if (!alive[e])
+                continue;
+            cost[e] = forced[e] ? 0 : weight[e] * scale + rank[e];
+            int u = from[e], v = to[e];
+            d[u][v] = Math.min(d[u][v], cost[e]);
+        }
+        for (int k=0; k<nNodes; k++) {
+            long[] dk = d[k];
+            for (int i=0; i<nNodes; i++) {
+                long dik = d[i][k];
+                if (dik == INFINITY)
+                    continue;
+                long[] di = d[i];
+                for (int j=0; j<nNodes; j++) {
+                    if (dik + dk[j] < di[j])
+                        di[j] = dik + dk[j];
+                }
+            }
+        }
+
+        // a path from u to v other than e starts with some other edge u->x
+        int[][] outList = outLists();
+        long[] alt = new long[nEdges];
+        Arrays.fill(alt, INFINITY);
+        for (int u=0; u<nNodes; u++) {
+            for (int e : outList[u]) {
+                if (forced[e])
+                    continue;
+                int v = to[e];
+                for (int f : outList[u]) {
+                    long dxv = d[to[f]][v];
+                    if (f != e && dxv != INFINITY)
+                        alt[e] = Math.min(alt[e], cost[f] + dxv);
+                }
+            }
+        }
+        for (int e=0; e<nEdges; e++) {
+            if (alive[e] && !forced[e] && alt[e] < cost[e]) {
+                kill(e);
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * @return  the live outgoing edges of each node
+     */
+    private int[][] outLists() {
+        int[][] lists = new int[nNodes][];
+        for (int u=0; u<nNodes; u++) {
+            lists[u] = new int[outDegree[u]];
+            int count = 0;
+            for (int k=0; k<outLength[u]; k++) {
+                int e = outEdges[u][k];
+                if (alive[e])
+                    lists[u][count++] = e;
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * @return  true if a node with one edge in and one edge out was
+     *          contracted
+     */
+    private boolean contractChains() {
+        boolean changed = false;
+        for (int v=0; v<nNodes; v++) {
+            if (!nodeAlive[v] || inDegree[v] != 1 || outDegree[v] != 1)
+                continue;
+            int in = inXor[v], out = outXor[v];
+            int a = from[in], b = to[out];
+            kill(in);
+            kill(out);
+            nodeAlive[v] = false;
+            contracted++;
+            changed = true;
+            if (a == b) {
+                fixed.addAll(members.get(in));
+                fixed.addAll(members.get(out));
+                continue;
+            }
+            // the chain is in every solution, so a direct a->b is not
+            // needed.  If the direct edge is forced too, it already joins a
+            // to b and the chain is just fixed.
+            ArrayList<Edge> m = new ArrayList<Edge>(members.get(in));
+            m.addAll(members.get(out));
+            boolean direct = false;
+            int[] list = outEdges[a];
+            int count = 0;
+            for (int k=0; k<outLength[a]; k++) {
+                int e = list[k];
+                if (!alive[e])
+                    continue;
+                if (to[e] == b) {
+                    if (forced[e]) {
+                        direct = true;
+                    } else {
+                        kill(e);
+                        dropped++;
+                        continue;
+                    }
+                }
+                list[count++] = e;
+            }
+            outLength[a] = count;
+            if (direct) {
+                fixed.addAll(m);
+                continue;
+            }
+            int e = addWorkingEdge(a, b, weight[in] + weight[out], m);
+            forced[e] = true;
+        }
+        return changed;
+    }
+
+    /**
+     * build the reduced graph from the live edges
+     */
+    private void build() {
+        reduced = new AdjacencyList();
+        Node[] copies = new Node[nNodes];
+        int name = 0;
+        for (int e=0; e<nEdges; e++) {
+            if (!alive[e])
+                continue;
+            int u = from[e], v = to[e];
+            if (copies[u] == null)
+                copies[u] = new Node(nodes[u].name);
+            if (copies[v] == null)
+                copies[v] = new Node(nodes[v].name);
+            ArrayList<Edge> m = members.get(e);
+            // keep the original name when nothing was contracted
+            int n = (m.size() == 1) ? m.get(0).name : --name;
+            if (forced[e]) {
+                fixed.addAll(m);
+                reduced.addEdge(n, copies[u], copies[v], 0);
+                expansion.put(n, new ArrayList<Edge>());
+            } else {
+                reduced.addEdge(n, copies[u], copies[v], weight[e]);
+                expansion.put(n, m);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Debug.setLevel(2);
+	if (args.length < 1) {
+	    System.out.println("Usage: Reduction <inputfile> ...");
+	    return;
+	}
+        for (int i=0; i<args.length; i++) {
+            String file = args[i];
+            Debug.println("\nfile: " + file);
+            new Reduction(Facebull.loadFile(file));
+        }
+    }
+}
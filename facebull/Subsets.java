@@ -1,10 +1,19 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Generate all possible subsets of edges, with some pruning
+ *
+ * The search can run on several threads: the top levels of the search tree
+ * are split into ForkJoin tasks, one per choice of the first edges, and all
+ * workers prune against a shared bound.  Ties between solutions of equal
+ * weight are broken canonically (fewest edges, then lexicographically
+ * smallest edge indexes), so the answer does not depend on the number of
+ * threads.
  */
 public class Subsets {
     final int INFINITY = Integer.MAX_VALUE;
@@ -18,13 +27,46 @@ public class Subsets {
     int nEdges;
     int maxEdges;
     int weights[];
-    int index;
     int[] minEdges;
     int minEdgesLength;
-    HashMap<Node, ArrayList<Node>> adj = new HashMap<Node, ArrayList<Node>>();
-    ArrayList<Node> stack = new ArrayList<Node>();
-    ArrayList<ArrayList<Node>> adjLists;
-    HashMap<Node, Integer> nodeIndex = new HashMap<Node, Integer>();
+
+    // node indexes of the endpoints of allEdgesArray[i]
+    int[] edgeFrom;
+    int[] edgeTo;
+
+    long allMask;               // all nodes, used when nNodes <= 64
+    int nWords;                 // words per node set, used when nNodes > 64
+    long[] allWords;
+
+    // suffixIn[i] (suffixOut[i]) is the set of nodes that are the target
+    // (source) of some edge at position i or later in allEdgesArray
+    long[] suffixIn;
+    long[] suffixOut;
+    long[][] suffixInWords;
+    long[][] suffixOutWords;
+
+    // cheapest incoming and outgoing edge weight of each node, and the sum
+    // of weights[0..i-1]
+    int[] minIn;
+    int[] minOut;
+    long[] weightSum;
+
+    // suffixOutAdj[i][u] (suffixInAdj[i][v]) is the set of targets of u
+    // (sources of v) over the edges at position i or later, used when
+    // nNodes <= 64
+    long[][] suffixOutAdj;
+    long[][] suffixInAdj;
+
+    // number of threads, and number of levels split into parallel tasks
+    int threads = 1;
+    int splitLevels = 2;
+
+    // incumbent weight shared by all workers for pruning
+    AtomicInteger bound = new AtomicInteger(INFINITY);
+
+    // known lower bound: a solution this cheap ends a sequential search
+    int lowerBound = -1;
+    ThreadLocal<Searcher> searchers;
 
     public Subsets(AdjacencyList g) {
 	graph = g;
@@ -33,6 +75,7 @@ public class Subsets {
         nNodes = nodeList.size();
         allEdges = graph.getAllEdges();
         nEdges = allEdges.size();
+        // ties are broken by name, so the search order is reproducible
         Collections.sort(allEdges, new EdgeWeightComparator());
         allEdgesArray = new Edge[nEdges];
         allEdgesArray = allEdges.toArray(allEdgesArray);
@@ -40,11 +83,73 @@ public class Subsets {
         for (int i=0; i<nEdges; i++) {
             weights[i] = allEdges.get(i).weight;
         }
-        for (int i=0; i<nNodes; i++) {
-            Node n = nodeList.get(i);
-            nodeIndex.put(n, graph.getNodeIndex(n));
-            adj.put(n, new ArrayList<Node>());
+        edgeFrom = new int[nEdges];
+        edgeTo = new int[nEdges];
+        for (int i=0; i<nEdges; i++) {
+            edgeFrom[i] = graph.getNodeIndex(allEdgesArray[i].from);
+            edgeTo[i] = graph.getNodeIndex(allEdgesArray[i].to);
         }
+        if (nNodes <= 64) {
+            allMask = (nNodes == 64) ? -1L : (1L << nNodes) - 1;
+            suffixIn = new long[nEdges+1];
+            suffixOut = new long[nEdges+1];
+            suffixOutAdj = new long[nEdges+1][nNodes];
+            suffixInAdj = new long[nEdges+1][nNodes];
+            for (int i=nEdges-1; i>=0; i--) {
+                suffixIn[i] = suffixIn[i+1] | (1L << edgeTo[i]);
+                suffixOut[i] = suffixOut[i+1] | (1L << edgeFrom[i]);
+                System.arraycopy(suffixOutAdj[i+1], 0, suffixOutAdj[i], 0,
+                    nNodes);
+                System.arraycopy(suffixInAdj[i+1], 0, suffixInAdj[i], 0,
+                    nNodes);
+                suffixOutAdj[i][edgeFrom[i]] |= 1L << edgeTo[i];
+                suffixInAdj[i][edgeTo[i]] |= 1L << edgeFrom[i];
+            }
+        } else {
+            nWords = (nNodes + 63) >>> 6;
+            allWords = new long[nWords];
+            for (int v=0; v<nNodes; v++)
+                setBit(allWords, v);
+            suffixInWords = new long[nEdges+1][nWords];
+            suffixOutWords = new long[nEdges+1][nWords];
+            for (int i=nEdges-1; i>=0; i--) {
+                System.arraycopy(suffixInWords[i+1], 0, suffixInWords[i], 0,
+                    nWords);
+                System.arraycopy(suffixOutWords[i+1], 0, suffixOutWords[i], 0,
+                    nWords);
+                setBit(suffixInWords[i], edgeTo[i]);
+                setBit(suffixOutWords[i], edgeFrom[i]);
+            }
+        }
+        minIn = new int[nNodes];
+        minOut = new int[nNodes];
+        Arrays.fill(minIn, INFINITY);
+        Arrays.fill(minOut, INFINITY);
+        for (int i=nEdges-1; i>=0; i--) {
+            minIn[edgeTo[i]] = weights[i];
+            minOut[edgeFrom[i]] = weights[i];
+        }
+        weightSum = new long[nEdges+1];
+        for (int i=0; i<nEdges; i++)
+            weightSum[i+1] = weightSum[i] + weights[i];
+    }
+
+    /**
+     * Set the number of worker threads used by solve().  1 means the search
+     * runs on the calling thread.
+     */
+    public void setThreads(int n) {
+        threads = Math.max(1, n);
+    }
+
+    /**
+     * Set a lower bound on the solution weight, e.g. from Edmonds.  Once a
+     * solution of that weight is found no better one exists, so a
+     * sequential search stops there.  The first such solution in search
+     * order is also the canonical one.
+     */
+    public void setLowerBound(int weight) {
+        lowerBound = weight;
     }
 
     public void solve(int weight) {
@@ -53,136 +158,490 @@ public class Subsets {
     }
 
     public void solve() {
+        Facebull.printSolution(getSolution());
+    }
+
+    public ArrayList<Edge> getSolution(int weight) {
+        minWeight = weight;
+        return getSolution();
+    }
+
+    /**
+     * run the search and return the cheapest edge set found, or null if
+     * none beats the initial weight.
+     */
+    public ArrayList<Edge> getSolution() {
         maxEdges = Math.min(2*nNodes, nEdges);
-        int[] edges = new int[maxEdges];
         minEdges = new int[maxEdges];
+        minEdgesLength = 0;
+        bound.set(minWeight);
+        searchers = new ThreadLocal<Searcher>() {
+            protected Searcher initialValue() {
+                return new Searcher();
+            }
+        };
 
+        nodeCount = 0;
         long start = System.currentTimeMillis();
+        ForkJoinPool pool = null;
+        if (threads > 1)
+            pool = new ForkJoinPool(threads);
         for (int m = nNodes; m <= maxEdges; m++) {
             Debug.println(2, "trying " + m + " edges... ");
-            search(m, 0, 0, edges, 0, new HashSet<Node>());
+            if (pool == null) {
+                searchers.get().searchFrom(m, new int[0], 0);
+            } else {
+                pool.invoke(new SearchTask(m, new int[0], 0));
+            }
         }
+        if (pool != null)
+            pool.shutdown();
         long elapsed = System.currentTimeMillis() - start;
-        
+
         if (Debug.isOn()) {
             double t = elapsed/1000.0;
             Debug.println("elapsed time = " + t);
+            Debug.println("search nodes = " + nodeCount);
         }
+        if (minEdgesLength == 0 && nNodes > 1)
+            return null;
         ArrayList<Edge> edgeList = new ArrayList<Edge>();
         for (int i=0; i<minEdgesLength; i++) {
             edgeList.add(allEdges.get(minEdges[i]));
         }
-        Facebull.printSolution(edgeList);
+        return edgeList;
     }
 
-    public void search(int m, int level, int weight, int edges[], int start, 
-        HashSet<Node> inSet) {
-        int end = nEdges-(m-level);
-        for (int i=start; i<=end; i++) {
-            if (Debug.debugLevel > 2 && level <= 2) {
-                int j = level;
-                while (j-- > 0) Debug.print(3, "  ");
-                Debug.println(3, "  starting with " + i);
-            }
-            int w = weight + weights[i];
-            if (w > minWeight)
+    /**
+     * Record a solution if it is better than the incumbent: lower weight,
+     * or equal weight and canonically smaller.
+     */
+    synchronized void foundSolution(int edges[], int len, int w) {
+        for (int s=0; s<len; s++) {
+            Debug.print(edges[s] + " ");
+        }
+        Debug.println("w="+w);
+        if (minEdgesLength > 0 && (w > minWeight || (w == minWeight &&
+                compare(edges, len, minEdges, minEdgesLength) >= 0)))
+            return;
+        minWeight = w;
+        minEdgesLength = len;
+        System.arraycopy(edges, 0, minEdges, 0, len);
+        if (bound.get() > w)
+            bound.set(w);
+        if (threads == 1 && w <= lowerBound)
+            bound.set(w-1);         // prunes everything that is left
+    }
+
+    private static int compare(int[] a, int alen, int[] b, int blen) {
+        if (alen != blen)
+            return alen - blen;
+        for (int i=0; i<alen; i++) {
+            if (a[i] != b[i])
+                return a[i] - b[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Searches the subsets of m edges that start with the given prefix of
+     * edge indexes.  The first splitLevels levels fork one subtask per
+     * choice of edge; below that the subtree is searched sequentially.
+     */
+    class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        int m;
+        int[] prefix;
+        int weight;
+
+        SearchTask(int m, int[] prefix, int weight) {
+            this.m = m;
+            this.prefix = prefix;
+            this.weight = weight;
+        }
+
+        protected void compute() {
+            int level = prefix.length;
+            if (level >= splitLevels || level >= m-1) {
+                searchers.get().searchFrom(m, prefix, weight);
                 return;
-            edges[level] = i;
-            HashSet<Node> inSet2 = new HashSet<Node>(inSet);
-            inSet2.add(allEdgesArray[i].to);
-            if (level == m-1) {
-                if (inSet2.size() == nNodes && isSCC(edges, level+1)) {
-                    // found solution
-                    for (int s=0; s<=level; s++) {
-                        Debug.print(edges[s] + " ");
-                    }
-                    Debug.println("w="+w);
-                    if (minWeight >= w)
-                        minWeight = w;
-                    minEdgesLength = level+1;
-                    System.arraycopy(edges, 0, minEdges, 0, minEdgesLength);
-                }            
-            } else {
-                search(m, level+1, w, edges, i+1, inSet2);
             }
+            int start = (level == 0) ? 0 : prefix[level-1]+1;
+            int end = nEdges-(m-level);
+            ArrayList<SearchTask> tasks = new ArrayList<SearchTask>();
+            for (int i=start; i<=end; i++) {
+                int w = weight + weights[i];
+                if (w > bound.get())
+                    break;
+                int[] p = Arrays.copyOf(prefix, level+1);
+                p[level] = i;
+                tasks.add(new SearchTask(m, p, w));
+            }
+            invokeAll(tasks);
         }
     }
 
-    private boolean isSCC(int edges[], int len) {
-        adj.clear();
-        for (int i=0; i<len; i++) {
-            Edge e = allEdgesArray[edges[i]];
-            if (!adj.containsKey(e.from)) {
-                adj.put(e.from, new ArrayList<Node>());
-            }
-            ArrayList<Node> list = adj.get(e.from);
-            list.add(e.to);
-        }
-        for (Node n : nodeList) {
-            n.reset();
-            if (adj.get(n) == null || adj.get(n).size() == 0)
-                return false;
-        }
-        Node v = nodeList.get(0);
-        index = 0;
-        stack.clear();
-        return checkSCC(v);
+    /**
+     * Per-thread search state.
+     */
+    class Searcher {
+        int[] edges = new int[maxEdges];
+        long count;
+
+        // adjacency masks of the chosen edges, used when nNodes <= 64
+        long[] outAdj;
+        long[] inAdj;
+
+        // multi-word bitmask state, used when nNodes > 64
+        long[][] inWords;
+        long[][] outWords;
+        long[][] outAdjWords;
+        long[][] inAdjWords;
+        long[] reachWords;
+        int[] queue;
+
+        Searcher() {
+            if (nNodes <= 64) {
+                outAdj = new long[nNodes];
+                inAdj = new long[nNodes];
+            } else {
+                inWords = new long[maxEdges+1][nWords];
+                outWords = new long[maxEdges+1][nWords];
+                outAdjWords = new long[nNodes][nWords];
+                inAdjWords = new long[nNodes][nWords];
+                reachWords = new long[nWords];
+                queue = new int[nNodes];
+            }
+        }
+
+        /**
+         * search the subsets of m edges starting with prefix, which has
+         * total weight weight.
+         */
+        void searchFrom(int m, int[] prefix, int weight) {
+            int level = prefix.length;
+            System.arraycopy(prefix, 0, edges, 0, level);
+            int start = (level == 0) ? 0 : prefix[level-1]+1;
+            int lbIn = 0, lbOut = 0;
+            for (int v=0; v<nNodes; v++) {
+                lbIn += minIn[v];
+                lbOut += minOut[v];
+            }
+            count = 0;
+            if (nNodes <= 64) {
+                long inMask = 0, outMask = 0;
+                long fwd = 1L, bwd = 1L;
+                for (int i=0; i<level; i++) {
+                    int u = edgeFrom[prefix[i]];
+                    int v = edgeTo[prefix[i]];
+                    if ((inMask & (1L << v)) == 0)
+                        lbIn -= minIn[v];
+                    if ((outMask & (1L << u)) == 0)
+                        lbOut -= minOut[u];
+                    inMask |= 1L << v;
+                    outMask |= 1L << u;
+                    outAdj[u] |= 1L << v;
+                    inAdj[v] |= 1L << u;
+                    fwd = extend(fwd, u, v, outAdj);
+                    bwd = extend(bwd, v, u, inAdj);
+                }
+                search(m, level, weight, edges, start, inMask, outMask,
+                    lbIn, lbOut, fwd, bwd);
+                for (int i=0; i<level; i++) {
+                    outAdj[edgeFrom[prefix[i]]] = 0;
+                    inAdj[edgeTo[prefix[i]]] = 0;
+                }
+            } else {
+                Arrays.fill(inWords[level], 0L);
+                Arrays.fill(outWords[level], 0L);
+                int inCount = 0, outCount = 0;
+                for (int i=0; i<level; i++) {
+                    int u = edgeFrom[prefix[i]];
+                    int v = edgeTo[prefix[i]];
+                    if (setBit(inWords[level], v) == 1) {
+                        inCount++;
+                        lbIn -= minIn[v];
+                    }
+                    if (setBit(outWords[level], u) == 1) {
+                        outCount++;
+                        lbOut -= minOut[u];
+                    }
+                }
+                searchWide(m, level, weight, edges, start, inCount, outCount,
+                    lbIn, lbOut);
+            }
+            synchronized (Subsets.this) {
+                nodeCount += count;
+            }
+        }
+
+        /**
+         * @return  lower bound on the weight of need more edges chosen at
+         *          positions start and later, given that the uncovered nodes
+         *          need lbIn (lbOut) for their cheapest incoming (outgoing)
+         *          edges.
+         */
+        long lowerBound(int start, int need, int lbIn, int lbOut) {
+            long lb = weightSum[start+need] - weightSum[start];
+            return Math.max(lb, Math.max(lbIn, lbOut));
+        }
+
+        /**
+         * Search all subsets of m edges, keeping the set of nodes covered as
+         * a target (inMask) and as a source (outMask) of the chosen edges in
+         * bit masks indexed by node index.  lbIn (lbOut) is the sum of the
+         * cheapest incoming (outgoing) edge weights of the nodes not yet
+         * covered.
+         *
+         * A branch is cut as soon as some node can no longer be covered by
+         * the remaining edges, or when the weight plus a lower bound on the
+         * remaining edges exceeds the best weight found so far.
+         *
+         * fwd (bwd) is the set of nodes reachable from (reaching) node 0
+         * over the chosen edges.  Both are updated as edges are pushed, and
+         * the call stack keeps the previous values for the pop, so the
+         * subset is strongly connected exactly when both contain all nodes.
+         * A branch is also cut when the chosen edges together with all the
+         * remaining ones can no longer connect every node to node 0.
+         */
+        void search(int m, int level, int weight, int edges[], int start,
+            long inMask, long outMask, int lbIn, int lbOut, long fwd,
+            long bwd) {
+            int end = nEdges-(m-level);
+            int need = m-level-1;
+            for (int i=start; i<=end; i++) {
+                if (Debug.debugLevel > 2 && level <= 2) {
+                    int j = level;
+                    while (j-- > 0) Debug.print(3, "  ");
+                    Debug.println(3, "  starting with " + i);
+                }
+                // suffix masks only shrink as i grows, so no later edge
+                // can complete the cover either
+                if ((inMask | suffixIn[i]) != allMask ||
+                        (outMask | suffixOut[i]) != allMask)
+                    return;
+                int w = weight + weights[i];
+                if (w > bound.get())
+                    return;
+                count++;
+                edges[level] = i;
+                int u = edgeFrom[i];
+                int v = edgeTo[i];
+                long inMask2 = inMask | (1L << v);
+                long outMask2 = outMask | (1L << u);
+                int lbIn2 = (inMask2 != inMask) ? lbIn - minIn[v] : lbIn;
+                int lbOut2 = (outMask2 != outMask) ? lbOut - minOut[u] : lbOut;
+                if (level == m-1) {
+                    if (inMask2 == allMask && outMask2 == allMask &&
+                            extend(fwd, u, v, outAdj) == allMask &&
+                            extend(bwd, v, u, inAdj) == allMask) {
+                        // edge i is not in outAdj/inAdj, but extend()
+                        // follows it directly and never needs it again
+                        foundSolution(edges, level+1, w);
+                    }
+                    continue;
+                }
+                long uncovered = ~inMask2 & allMask;
+                long unsourced = ~outMask2 & allMask;
+                if (Long.bitCount(uncovered) > need ||
+                        Long.bitCount(unsourced) > need)
+                    continue;
+                if (w + lowerBound(i+1, need, lbIn2, lbOut2) > bound.get())
+                    continue;
+
+                outAdj[u] |= 1L << v;
+                inAdj[v] |= 1L << u;
+                long fwd2 = extend(fwd, u, v, outAdj);
+                long bwd2 = extend(bwd, v, u, inAdj);
+                if (closure(fwd2, outAdj, suffixOutAdj[i+1]) == allMask &&
+                        closure(bwd2, inAdj, suffixInAdj[i+1]) == allMask) {
+                    search(m, level+1, w, edges, i+1, inMask2, outMask2,
+                        lbIn2, lbOut2, fwd2, bwd2);
+                }
+                outAdj[u] &= ~(1L << v);
+                inAdj[v] &= ~(1L << u);
+            }
+        }
+
+        /**
+         * @return  reach extended by the new edge u->v of adj: if u is in
+         *          reach and v is not, add everything reachable from v
+         */
+        long extend(long reach, int u, int v, long[] adj) {
+            if ((reach & (1L << u)) == 0 || (reach & (1L << v)) != 0)
+                return reach;
+            long frontier = 1L << v;
+            reach |= frontier;
+            while (frontier != 0) {
+                int x = Long.numberOfTrailingZeros(frontier);
+                frontier &= frontier - 1;
+                long next = adj[x] & ~reach;
+                reach |= next;
+                frontier |= next;
+            }
+            return reach;
+        }
+
+        /**
+         * @return  reach closed under the union of adjacency masks adj and
+         *          rest
+         */
+        long closure(long reach, long[] adj, long[] rest) {
+            long frontier = reach;
+            while (frontier != 0) {
+                int x = Long.numberOfTrailingZeros(frontier);
+                frontier &= frontier - 1;
+                long next = (adj[x] | rest[x]) & ~reach;
+                reach |= next;
+                frontier |= next;
+            }
+            return reach;
+        }
+
+        /**
+         * Same as search(), for graphs with more than 64 nodes.  The covered
+         * sets for each level are kept in inWords[level] and outWords[level].
+         */
+        void searchWide(int m, int level, int weight, int edges[],
+            int start, int inCount, int outCount, int lbIn, int lbOut) {
+            int end = nEdges-(m-level);
+            int need = m-level-1;
+            long[] in = inWords[level];
+            long[] out = outWords[level];
+            long[] in2 = inWords[level+1];
+            long[] out2 = outWords[level+1];
+            for (int i=start; i<=end; i++) {
+                if (!covers(in, suffixInWords[i]) ||
+                        !covers(out, suffixOutWords[i]))
+                    return;
+                int w = weight + weights[i];
+                if (w > bound.get())
+                    return;
+                count++;
+                edges[level] = i;
+                int u = edgeFrom[i];
+                int v = edgeTo[i];
+                System.arraycopy(in, 0, in2, 0, nWords);
+                System.arraycopy(out, 0, out2, 0, nWords);
+                int inCount2 = inCount;
+                int outCount2 = outCount;
+                int lbIn2 = lbIn;
+                int lbOut2 = lbOut;
+                if (setBit(in2, v) == 1) {
+                    inCount2++;
+                    lbIn2 -= minIn[v];
+                }
+                if (setBit(out2, u) == 1) {
+                    outCount2++;
+                    lbOut2 -= minOut[u];
+                }
+                if (level == m-1) {
+                    if (inCount2 == nNodes && outCount2 == nNodes &&
+                            isSCCWide(edges, level+1)) {
+                        foundSolution(edges, level+1, w);
+                    }
+                } else {
+                    if (nNodes - inCount2 > need || nNodes - outCount2 > need)
+                        continue;
+                    if (w + lowerBound(i+1, need, lbIn2, lbOut2) > bound.get())
+                        continue;
+                    searchWide(m, level+1, w, edges, i+1, inCount2,
+                        outCount2, lbIn2, lbOut2);
+                }
+            }
+        }
+
+        /**
+         * @return  true if covered together with suffix contains all nodes
+         */
+        boolean covers(long[] covered, long[] suffix) {
+            for (int k=0; k<nWords; k++) {
+                if ((covered[k] | suffix[k]) != allWords[k])
+                    return false;
+            }
+            return true;
+        }
+
+        boolean isSCCWide(int edges[], int len) {
+            for (int v=0; v<nNodes; v++) {
+                Arrays.fill(outAdjWords[v], 0L);
+                Arrays.fill(inAdjWords[v], 0L);
+            }
+            for (int i=0; i<len; i++) {
+                int u = edgeFrom[edges[i]];
+                int v = edgeTo[edges[i]];
+                setBit(outAdjWords[u], v);
+                setBit(inAdjWords[v], u);
+            }
+            return checkSCCWide(outAdjWords) && checkSCCWide(inAdjWords);
+        }
+
+        boolean checkSCCWide(long[][] adj) {
+            Arrays.fill(reachWords, 0L);
+            reachWords[0] = 1L;
+            int count = 1;
+            int top = 0;
+            queue[top++] = 0;
+            while (top > 0) {
+                int v = queue[--top];
+                long[] a = adj[v];
+                for (int k=0; k<nWords; k++) {
+                    long next = a[k] & ~reachWords[k];
+                    reachWords[k] |= next;
+                    while (next != 0) {
+                        queue[top++] = (k << 6) +
+                            Long.numberOfTrailingZeros(next);
+                        next &= next - 1;
+                        count++;
+                    }
+                }
+            }
+            return count == nNodes;
+        }
     }
 
-    private boolean checkSCC(Node v) {
-        boolean ret = true;
-        v.index = index;
-        v.lowlink = index;
-        index++;
-        stack.add(v);
-        ArrayList<Node> nodes = adj.get(v);
-        if ((nodes == null) || (nodes.size() == 0))
-            return false;
-        for (Node n : nodes) {
-           if (n.index == -1) {
-               ret = checkSCC(n);
-               if (!ret)
-                   return false;
-               if (v.lowlink > n.lowlink)
-                   v.lowlink = n.lowlink;
-           } else if (stack.contains(n)) {
-               if (v.lowlink > n.index)
-                   v.lowlink = n.index;
-           }
-        }
-        if (v.lowlink == v.index){
-            Node n;
-            int i = 0;
-            do {
-                n = stack.remove(stack.size()-1);
-                i++;
-            } while (n != v);
-            if (i != nNodes)
-                ret = false;
-        }
-        return ret;
+    /**
+     * set bit b in words, returning 1 if it was not already set.
+     */
+    static int setBit(long[] words, int b) {
+        long bit = 1L << b;
+        long old = words[b >>> 6];
+        words[b >>> 6] = old | bit;
+        return ((old & bit) == 0) ? 1 : 0;
     }
 
     public static void main(String[] args) {
         Debug.setLevel(0);
-	if (args.length < 1) {
-	    System.out.println("Usage: Subsets <inputfile> ...");
+        int threads = 1;
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-t")) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+	if (args.length <= first) {
+	    System.out.println("Usage: Subsets [-t threads] <inputfile> ...");
 	    return;
 	}
-        for (int i=0; i<args.length; i++) {
+        for (int i=first; i<args.length; i++) {
             String file = args[i];
             Debug.println("\nfile: " + file);
-            AdjacencyList graph = Facebull.loadFile(file);
-            Kpermute ksolver = new Kpermute(graph);
-            ArrayList<Integer> klist = new ArrayList<Integer>()
-                {{ add(5); add(4); add(3); add(2); }};
-            ArrayList<Edge> edges = ksolver.solve(klist);
-            int w = 0;
-            for (Edge e : edges)
-                w += e.weight;
+            Reduction reduction = new Reduction(Facebull.loadFile(file));
+            AdjacencyList graph = reduction.getGraph();
+            if (reduction.isSolved()) {
+                Facebull.printSolution(reduction.getFixedEdges());
+                continue;
+            }
+            Edmonds edmonds = new Edmonds(graph);
+            ArrayList<Edge> edges = EdgeSetSearch.getSeed(graph);
+            int w = (edges == null) ? Integer.MAX_VALUE :
+                Edge.getTotalWeight(edges);
 
             Subsets solver = new Subsets(graph);
-            solver.solve(w);
+            solver.setThreads(threads);
+            long cover = new DegreeCover(graph).getBound();
+            solver.setLowerBound((int)Math.max(edmonds.getLowerBound(),
+                Math.min(cover, Integer.MAX_VALUE)));
+            Facebull.printSolution(reduction.expand(solver.getSolution(w)));
         }
     }
 }
@@ -0,0 +1,34 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * MinPlus on the incubating Vector API: a whole vector of columns per
+ * add, min and blend.  Not part of the default build, since it
+ * needs --add-modules jdk.incubator.vector to compile and to run:
+ *
+ *   make vector
+ *   java --add-modules jdk.incubator.vector FloydWarshall
+ */
+public class VectorMinPlus implements MinPlus {
+    static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public void relax(int[] dist, int[] next, int i, int k, int from,
+            int to, int dik, int nik) {
+        IntVector vik = IntVector.broadcast(SPECIES, dik);
+        IntVector hop = IntVector.broadcast(SPECIES, nik);
+        int j = from;
+        for (int end = from + SPECIES.loopBound(to - from); j < end;
+                j += SPECIES.length()) {
+            IntVector d = IntVector.fromArray(SPECIES, dist, k + j).add(vik);
+            IntVector old = IntVector.fromArray(SPECIES, dist, i + j);
+            VectorMask<Integer> better = d.lt(old);
+            if (!better.anyTrue())
+                continue;
+            old.min(d).intoArray(dist, i + j);
+            IntVector.fromArray(SPECIES, next, i + j).blend(hop, better)
+                .intoArray(next, i + j);
+        }
+        FloydWarshall.relax(dist, next, i, k, j, to, dik, nik);
+    }
+}